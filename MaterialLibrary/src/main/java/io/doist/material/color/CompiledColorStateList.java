@@ -0,0 +1,133 @@
+package io.doist.material.color;
+
+import android.content.res.ColorStateList;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import io.doist.material.reflection.ReflectionUtils;
+
+/**
+ * {@link ColorStateList} compiled into a lookup table over the states that commonly matter: pressed, focused,
+ * checked, enabled, selected and activated. Resolving a color is then an array access by the state mask, obtained
+ * once per state change through {@link #getStateMask(int[])}, instead of a scan of all state specs.
+ *
+ * Only color state lists whose specs use no other states can be compiled.
+ */
+public final class CompiledColorStateList {
+    public static final int STATE_PRESSED = 1;
+    public static final int STATE_FOCUSED = 1 << 1;
+    public static final int STATE_CHECKED = 1 << 2;
+    public static final int STATE_ENABLED = 1 << 3;
+    public static final int STATE_SELECTED = 1 << 4;
+    public static final int STATE_ACTIVATED = 1 << 5;
+
+    private static final int[] STATES = new int[]{
+            android.R.attr.state_pressed,
+            android.R.attr.state_focused,
+            android.R.attr.state_checked,
+            android.R.attr.state_enabled,
+            android.R.attr.state_selected,
+            android.R.attr.state_activated};
+
+    private static final Map<ColorStateList, CompiledColorStateList> sCache = new WeakHashMap<>();
+    // Marks color state lists that can't be compiled.
+    private static final CompiledColorStateList UNSUPPORTED = new CompiledColorStateList(null);
+
+    private final int[] mColors;
+
+    private CompiledColorStateList(int[] colors) {
+        mColors = colors;
+    }
+
+    /**
+     * Returns the compiled {@code colorStateList}, or null if it uses states other than the supported ones or its
+     * specs can't be inspected.
+     */
+    public static CompiledColorStateList get(ColorStateList colorStateList) {
+        if (colorStateList == null) {
+            return null;
+        }
+
+        CompiledColorStateList compiled;
+        synchronized (sCache) {
+            compiled = sCache.get(colorStateList);
+        }
+        if (compiled == null) {
+            compiled = compile(colorStateList);
+            synchronized (sCache) {
+                sCache.put(colorStateList, compiled);
+            }
+        }
+        return compiled != UNSUPPORTED ? compiled : null;
+    }
+
+    private static CompiledColorStateList compile(ColorStateList colorStateList) {
+        Object stateSpecs = ReflectionUtils.getDeclaredFieldValue(ColorStateList.class, "mStateSpecs", colorStateList);
+        if (!(stateSpecs instanceof int[][])) {
+            return UNSUPPORTED;
+        }
+        for (int[] stateSpec : (int[][]) stateSpecs) {
+            for (int state : stateSpec) {
+                // Negative states are the "false" variant of the state.
+                if (getStateFlag(Math.abs(state)) == 0) {
+                    return UNSUPPORTED;
+                }
+            }
+        }
+
+        int[] colors = new int[1 << STATES.length];
+        int[] stateSet = new int[STATES.length];
+        for (int mask = 0; mask < colors.length; mask++) {
+            int size = 0;
+            for (int i = 0; i < STATES.length; i++) {
+                if ((mask & (1 << i)) != 0) {
+                    stateSet[size++] = STATES[i];
+                }
+            }
+            int[] maskStateSet = new int[size];
+            System.arraycopy(stateSet, 0, maskStateSet, 0, size);
+            colors[mask] = colorStateList.getColorForState(maskStateSet, colorStateList.getDefaultColor());
+        }
+        return new CompiledColorStateList(colors);
+    }
+
+    /**
+     * Returns the color for the state {@code mask}.
+     */
+    public int getColorForStateMask(int mask) {
+        return mColors[mask];
+    }
+
+    /**
+     * Returns the mask of the supported states in {@code stateSet}.
+     */
+    public static int getStateMask(int[] stateSet) {
+        int mask = 0;
+        if (stateSet != null) {
+            for (int state : stateSet) {
+                mask |= getStateFlag(state);
+            }
+        }
+        return mask;
+    }
+
+    private static int getStateFlag(int state) {
+        switch (state) {
+            case android.R.attr.state_pressed:
+                return STATE_PRESSED;
+            case android.R.attr.state_focused:
+                return STATE_FOCUSED;
+            case android.R.attr.state_checked:
+                return STATE_CHECKED;
+            case android.R.attr.state_enabled:
+                return STATE_ENABLED;
+            case android.R.attr.state_selected:
+                return STATE_SELECTED;
+            case android.R.attr.state_activated:
+                return STATE_ACTIVATED;
+            default:
+                return 0;
+        }
+    }
+}
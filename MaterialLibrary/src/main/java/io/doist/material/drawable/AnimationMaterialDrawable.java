@@ -6,6 +6,7 @@ import org.xmlpull.v1.XmlPullParserException;
 import android.content.Context;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
+import android.graphics.Canvas;
 import android.graphics.drawable.AnimationDrawable;
 import android.graphics.drawable.Drawable;
 import android.graphics.drawable.DrawableContainer;
@@ -19,12 +20,64 @@ import io.doist.material.reflection.ReflectionUtils;
 import io.doist.material.res.MaterialResources;
 
 public class AnimationMaterialDrawable extends AnimationDrawable {
+    // Frames kept loaded ahead of the current one in lazy mode. The previous frame is kept too, as it may still be
+    // on screen.
+    private static final int LAZY_FRAME_WINDOW = 3;
+
+    private static volatile boolean sLazyFrameLoadingEnabled;
+
     private final WeakReference<Context> mContext;
 
+    private boolean mLazyFrames;
+    private int mCurrentIndex = -1;
+
+    private AnimationMaterialState mAnimationMaterialState;
+
     AnimationMaterialDrawable(Context context) {
         mContext = new WeakReference<>(context);
     }
 
+    /**
+     * Creates a drawable with the frames of {@code state}, so that lazy frames are loaded through the frame window
+     * like those of the inflated drawable.
+     */
+    AnimationMaterialDrawable(AnimationMaterialState state, Resources res) {
+        mContext = state.mContext;
+        mLazyFrames = state.mLazyFrames;
+
+        AnimationDrawable source = (AnimationDrawable) state.mAnimationState.newDrawable(res);
+        new AnimationState(this).setVariablePadding(new AnimationState(source).isVariablePadding());
+        setOneShot(source.isOneShot());
+        final int N = source.getNumberOfFrames();
+        for (int i = 0; i < N; i++) {
+            Drawable frame = source.getFrame(i);
+            if (frame instanceof LazyFrameDrawable) {
+                ((LazyFrameDrawable) frame).setWindowed(mLazyFrames);
+            }
+            addFrame(frame, source.getDuration(i));
+        }
+
+        if (mLazyFrames && N > 0) {
+            if (getFrame(0) instanceof LazyFrameDrawable) {
+                ((LazyFrameDrawable) getFrame(0)).ensureLoaded();
+            }
+            updateFrameWindow(0);
+        }
+    }
+
+    /**
+     * Enables lazy frame loading for animations inflated afterwards. Frames referenced by resource id are then only
+     * loaded a few frames ahead of playback, bitmaps being decoded in the background into the bitmaps of the frames
+     * already played, instead of all being loaded when inflating. Disabled by default.
+     */
+    public static void setLazyFrameLoadingEnabled(boolean enabled) {
+        sLazyFrameLoadingEnabled = enabled;
+    }
+
+    public static boolean isLazyFrameLoadingEnabled() {
+        return sLazyFrameLoadingEnabled;
+    }
+
     @Override
     public void inflate(Resources r, XmlPullParser parser, AttributeSet attrs)
             throws XmlPullParserException, IOException {
@@ -40,6 +93,9 @@ public class AnimationMaterialDrawable extends AnimationDrawable {
 
         a.recycle();
 
+        mLazyFrames = sLazyFrameLoadingEnabled;
+        LazyFrameDrawable.Loader frameLoader = mLazyFrames ? new LazyFrameDrawable.Loader(mContext.get(), r) : null;
+
         int type;
 
         final int innerDepth = parser.getDepth()+1;
@@ -69,7 +125,10 @@ public class AnimationMaterialDrawable extends AnimationDrawable {
 
             Context c = mContext.get();
             Drawable dr;
-            if (drawableRes != 0) {
+            if (drawableRes != 0 && frameLoader != null) {
+                dr = new LazyFrameDrawable(frameLoader, drawableRes, frameLoader.isBitmap(drawableRes));
+                ((LazyFrameDrawable) dr).setWindowed(true);
+            } else if (drawableRes != 0) {
                 dr = MaterialResources.getInstance(c, r).getDrawable(drawableRes);
             } else {
                 while ((type=parser.next()) == XmlPullParser.TEXT) {
@@ -82,6 +141,7 @@ public class AnimationMaterialDrawable extends AnimationDrawable {
                 }
                 dr = MaterialDrawableUtils.createFromXmlInner(c, r, parser, attrs);
             }
+            dr = MaterialDrawableUtils.flatten(dr);
 
             mAnimationState.addFrame(dr, duration);
             if (dr != null) {
@@ -90,6 +150,72 @@ public class AnimationMaterialDrawable extends AnimationDrawable {
         }
 
         setFrame(0, true, false);
+
+        if (mLazyFrames && getNumberOfFrames() > 0 && getFrame(0) instanceof LazyFrameDrawable) {
+            // Load the first frame right away, it's shown first and gives the size of the others.
+            ((LazyFrameDrawable) getFrame(0)).ensureLoaded();
+        }
+    }
+
+    @Override
+    public boolean selectDrawable(int idx) {
+        final boolean changed = super.selectDrawable(idx);
+        mCurrentIndex = idx;
+        if (mLazyFrames) {
+            updateFrameWindow(idx);
+        }
+        return changed;
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        Drawable current = getCurrent();
+        if (mLazyFrames && current instanceof LazyFrameDrawable && ((LazyFrameDrawable) current).isLoading()) {
+            // Keep showing the previous frame, kept loaded by the window, until the current one is decoded.
+            final int N = getNumberOfFrames();
+            Drawable previous = mCurrentIndex >= 0 && N > 1 ? getFrame((mCurrentIndex - 1 + N) % N) : null;
+            if (previous instanceof LazyFrameDrawable && ((LazyFrameDrawable) previous).isLoaded()) {
+                previous.setBounds(getBounds());
+                previous.draw(canvas);
+            }
+            return;
+        }
+        super.draw(canvas);
+    }
+
+    @Override
+    public ConstantState getConstantState() {
+        // Returned by MaterialResources for the drawables it creates, which must be of this class too.
+        ConstantState animationState = super.getConstantState();
+        if (animationState == null) {
+            return null;
+        }
+        if (mAnimationMaterialState == null || mAnimationMaterialState.mAnimationState != animationState) {
+            mAnimationMaterialState = new AnimationMaterialState(animationState, mContext, mLazyFrames);
+        }
+        return mAnimationMaterialState;
+    }
+
+    /**
+     * Loads the frames from {@code current} to {@link #LAZY_FRAME_WINDOW} frames ahead, wrapping around, and
+     * releases the others, except the previous one.
+     */
+    private void updateFrameWindow(int current) {
+        final int N = getNumberOfFrames();
+        if (current < 0 || current >= N) {
+            return;
+        }
+        for (int i = 0; i < N; i++) {
+            Drawable frame = getFrame(i);
+            if (frame instanceof LazyFrameDrawable) {
+                int distance = (i - current + N) % N;
+                if (distance <= LAZY_FRAME_WINDOW) {
+                    ((LazyFrameDrawable) frame).prefetch();
+                } else if (distance != N - 1) {
+                    ((LazyFrameDrawable) frame).release();
+                }
+            }
+        }
     }
 
     private void inflateWithAttributes(Resources r, XmlPullParser parser, TypedArray attrs, int visibleAttr) {
@@ -110,6 +236,36 @@ public class AnimationMaterialDrawable extends AnimationDrawable {
                 new Object[] {frame, unschedule, animate});
     }
 
+    /**
+     * Creates {@link AnimationMaterialDrawable}s from the state of the framework {@link AnimationDrawable}.
+     */
+    static class AnimationMaterialState extends ConstantState {
+        final ConstantState mAnimationState;
+        final WeakReference<Context> mContext;
+        final boolean mLazyFrames;
+
+        AnimationMaterialState(ConstantState animationState, WeakReference<Context> context, boolean lazyFrames) {
+            mAnimationState = animationState;
+            mContext = context;
+            mLazyFrames = lazyFrames;
+        }
+
+        @Override
+        public Drawable newDrawable() {
+            return newDrawable(null);
+        }
+
+        @Override
+        public Drawable newDrawable(Resources res) {
+            return new AnimationMaterialDrawable(this, res);
+        }
+
+        @Override
+        public int getChangingConfigurations() {
+            return mAnimationState.getChangingConfigurations();
+        }
+    }
+
     /**
      * Helper class to manipulate internal member mAnimationState.
      */
@@ -118,7 +274,7 @@ public class AnimationMaterialDrawable extends AnimationDrawable {
         final Class<?> DrawableContainerStateClass;
         final Object mAnimationState;
 
-        public AnimationState(AnimationMaterialDrawable receiver) {
+        public AnimationState(AnimationDrawable receiver) {
             AnimationStateClass =
                     ReflectionUtils.getClass(AnimationDrawable.class.getName() + "$AnimationState");
             DrawableContainerStateClass =
@@ -139,6 +295,14 @@ public class AnimationMaterialDrawable extends AnimationDrawable {
                     new Object[] {variable});
         }
 
+        public boolean isVariablePadding() {
+            Object variable = ReflectionUtils.getDeclaredFieldValue(
+                    DrawableContainerStateClass,
+                    "mVariablePadding",
+                    mAnimationState);
+            return variable != null && (boolean) variable;
+        }
+
         public void setOneShot(boolean oneShot) {
             ReflectionUtils.setDeclaredFieldValue(
                     AnimationStateClass,
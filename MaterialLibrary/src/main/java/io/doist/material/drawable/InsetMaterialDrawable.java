@@ -60,6 +60,7 @@ public class InsetMaterialDrawable extends InsetDrawable {
             }
             dr = MaterialDrawableUtils.createFromXmlInner(c, r, parser, attrs);
         }
+        dr = MaterialDrawableUtils.flatten(dr);
 
         if (dr == null) {
             Log.w("drawable", "No drawable specified for <inset>");
@@ -17,6 +17,7 @@ import android.view.View;
 
 import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.Arrays;
 
 import io.doist.material.R;
 import io.doist.material.reflection.ReflectionUtils;
@@ -48,6 +49,10 @@ public class LayerMaterialDrawable extends LayerDrawable {
     private int[] mPaddingT;
     private int[] mPaddingR;
     private int[] mPaddingB;
+    // Layers whose padding may have changed since it was last read, and the stacked padding of all layers.
+    private boolean[] mPaddingDirty;
+    private boolean mPaddingValid;
+    private final Rect mPadding = new Rect();
     private final Rect mTempRect = new Rect();
 
     protected boolean mMutated;
@@ -154,6 +159,7 @@ public class LayerMaterialDrawable extends LayerDrawable {
                 }
                 dr = MaterialDrawableUtils.createFromXmlInner(c, r, parser, attrs);
             }
+            dr = MaterialDrawableUtils.flatten(dr);
 
             addLayer(dr, id, left, top, right, bottom);
         }
@@ -181,9 +187,14 @@ public class LayerMaterialDrawable extends LayerDrawable {
 
         int index = getNumberOfLayers() - 1;
         mLayerMaterialState.setLayerInset(index, left, top, right, bottom);
+        markAllPaddingDirty();
     }
 
     public void setPaddingMode(int mode) {
+        if (getPaddingMode() != mode) {
+            // The stacked padding is only kept up to date while in STACK mode.
+            markAllPaddingDirty();
+        }
         if (mLayerMaterialState.inCompat) {
             mLayerMaterialState.setPaddingMode(mode);
         } else {
@@ -209,25 +220,89 @@ public class LayerMaterialDrawable extends LayerDrawable {
     }
 
     protected boolean getPaddingCompat(Rect padding) {
-        padding.left = 0;
-        padding.top = 0;
-        padding.right = 0;
-        padding.bottom = 0;
+        if (!mPaddingValid) {
+            final Rect stackedPadding = mPadding;
+            stackedPadding.set(0, 0, 0, 0);
 
-        final int N = getNumberOfLayers();
-        for (int i = 0; i < N; i++) {
-            refreshChildPadding(i, getDrawable(i));
+            final int N = getNumberOfLayers();
+            for (int i = 0; i < N; i++) {
+                // Only query layers whose padding may have changed, as nested layers query all of theirs in turn.
+                if (mPaddingDirty[i]) {
+                    refreshChildPadding(i, getDrawable(i));
+                    mPaddingDirty[i] = false;
+                }
 
-            // Take the max padding.
-            padding.left = Math.max(padding.left, mPaddingL[i]);
-            padding.top = Math.max(padding.top, mPaddingT[i]);
-            padding.right = Math.max(padding.right, mPaddingR[i]);
-            padding.bottom = Math.max(padding.bottom, mPaddingB[i]);
+                // Take the max padding.
+                stackedPadding.left = Math.max(stackedPadding.left, mPaddingL[i]);
+                stackedPadding.top = Math.max(stackedPadding.top, mPaddingT[i]);
+                stackedPadding.right = Math.max(stackedPadding.right, mPaddingR[i]);
+                stackedPadding.bottom = Math.max(stackedPadding.bottom, mPaddingB[i]);
+            }
+            mPaddingValid = true;
         }
 
+        padding.set(mPadding);
         return padding.left != 0 || padding.top != 0 || padding.right != 0 || padding.bottom != 0;
     }
 
+    /**
+     * Marks the padding of {@code who} as possibly changed, to be queried again on the next call to
+     * {@link #getPadding(Rect)}.
+     */
+    private void markPaddingDirty(Drawable who) {
+        final int N = mPaddingDirty != null ? Math.min(getNumberOfLayers(), mPaddingDirty.length) : 0;
+        for (int i = 0; i < N; i++) {
+            if (getDrawable(i) == who) {
+                mPaddingDirty[i] = true;
+                mPaddingValid = false;
+            }
+        }
+    }
+
+    private void markAllPaddingDirty() {
+        if (mPaddingDirty != null) {
+            Arrays.fill(mPaddingDirty, true);
+        }
+        mPaddingValid = false;
+    }
+
+    @Override
+    public void invalidateDrawable(Drawable who) {
+        // Also called from the super constructor, before the state is set.
+        if (mLayerMaterialState != null && mLayerMaterialState.handlePaddingModeStack) {
+            // Padding changes along with the content, eg. when a state list or an animation changes drawables.
+            markPaddingDirty(who);
+        }
+        super.invalidateDrawable(who);
+    }
+
+    @Override
+    protected boolean onStateChange(int[] state) {
+        final boolean changed = super.onStateChange(state);
+        if (changed) {
+            markAllPaddingDirty();
+        }
+        return changed;
+    }
+
+    @Override
+    protected boolean onLevelChange(int level) {
+        final boolean changed = super.onLevelChange(level);
+        if (changed) {
+            markAllPaddingDirty();
+        }
+        return changed;
+    }
+
+    @Override
+    public boolean setDrawableByLayerId(int id, Drawable drawable) {
+        final boolean changed = super.setDrawableByLayerId(id, drawable);
+        if (changed) {
+            markAllPaddingDirty();
+        }
+        return changed;
+    }
+
     /**
      * Refreshes the cached padding values for the specified child.
      */
@@ -261,9 +336,7 @@ public class LayerMaterialDrawable extends LayerDrawable {
         final int N = getNumberOfLayers();
         for (int i = 0; i < N; i++) {
             Drawable layerDrawable = getDrawable(i);
-            // When onBoundsChange is called, it means that some children's padding changed.
-            // Refresh child padding.
-            refreshChildPadding(i, layerDrawable);
+            // Child padding is refreshed when read, for the layers that signaled a change.
 
             // Update child bounds.
             int[] inset = mLayerMaterialState.getLayerInset(i);
@@ -341,6 +414,8 @@ public class LayerMaterialDrawable extends LayerDrawable {
         mPaddingT = new int[N];
         mPaddingR = new int[N];
         mPaddingB = new int[N];
+        mPaddingDirty = new boolean[N];
+        markAllPaddingDirty();
     }
 
     @Override
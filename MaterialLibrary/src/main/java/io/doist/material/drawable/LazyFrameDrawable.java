@@ -0,0 +1,393 @@
+package io.doist.material.drawable;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.PixelFormat;
+import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.TypedValue;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import io.doist.material.res.MaterialResources;
+
+/**
+ * Frame of an {@link AnimationMaterialDrawable} loaded from its resource only when needed, and released once played.
+ *
+ * {@link AnimationMaterialDrawable} prefetches the frames ahead of playback, decoding bitmaps in the background and
+ * reusing the bitmaps of released frames. A frame that is drawn before being loaded is loaded on the spot, unless it's
+ * being prefetched, and frames of other containers release themselves once hidden. Main thread only, except for the decoding.
+ */
+class LazyFrameDrawable extends Drawable implements Drawable.Callback {
+    private final LazyFrameState mLazyFrameState;
+
+    private Drawable mFrame;
+    // Incremented when the frame is released, to discard loads started before.
+    private int mGeneration;
+    private boolean mLoading;
+    // Whether mFrame holds a bitmap decoded by the loader, that can be reused once released.
+    private boolean mOwnsBitmap;
+    // Whether the container prefetches and releases this frame, otherwise it releases itself once hidden.
+    private boolean mWindowed;
+
+    private int mAlpha = 255;
+    private ColorFilter mColorFilter;
+
+    LazyFrameDrawable(Loader loader, int resId, boolean isBitmap) {
+        this(new LazyFrameState(loader, resId, isBitmap));
+    }
+
+    private LazyFrameDrawable(LazyFrameState state) {
+        mLazyFrameState = state;
+    }
+
+    /**
+     * Sets whether the container loads this frame ahead of playback and releases it, through {@link #prefetch()} and
+     * {@link #release()}. Otherwise, the frame is released when hidden, as containers hide the frames they stop
+     * showing.
+     */
+    void setWindowed(boolean windowed) {
+        mWindowed = windowed;
+    }
+
+    /**
+     * Starts loading the frame, if not yet loaded.
+     */
+    void prefetch() {
+        if (mFrame == null && !mLoading) {
+            mLoading = true;
+            mLazyFrameState.mLoader.loadAsync(this, mGeneration);
+        }
+    }
+
+    /**
+     * Drops the frame, returning its bitmap to the loader for reuse.
+     */
+    void release() {
+        releaseFrame(true);
+    }
+
+    private void releaseFrame(boolean reuseBitmap) {
+        mGeneration++;
+        mLoading = false;
+        if (mFrame != null) {
+            mFrame.setCallback(null);
+            if (mOwnsBitmap && reuseBitmap) {
+                mLazyFrameState.mLoader.recycle(((BitmapDrawable) mFrame).getBitmap());
+            }
+            mFrame = null;
+        }
+    }
+
+    boolean isLoaded() {
+        return mFrame != null;
+    }
+
+    /**
+     * Returns true while the frame is being prefetched.
+     */
+    boolean isLoading() {
+        return mLoading;
+    }
+
+    /**
+     * Loads the frame on the calling thread, if not yet loaded.
+     */
+    void ensureLoaded() {
+        if (mFrame == null) {
+            Loader loader = mLazyFrameState.mLoader;
+            setFrame(loader.load(mLazyFrameState.mResId, mLazyFrameState.mIsBitmap), mLazyFrameState.mIsBitmap);
+        }
+    }
+
+    private void onFrameLoaded(int generation, Drawable frame) {
+        if (generation != mGeneration || mFrame != null) {
+            // Released or loaded in the meantime.
+            if (mLazyFrameState.mIsBitmap && frame != null) {
+                mLazyFrameState.mLoader.recycle(((BitmapDrawable) frame).getBitmap());
+            }
+            return;
+        }
+        setFrame(frame, mLazyFrameState.mIsBitmap);
+        invalidateSelf();
+    }
+
+    private void setFrame(Drawable frame, boolean ownsBitmap) {
+        mGeneration++;
+        mLoading = false;
+        mFrame = frame;
+        mOwnsBitmap = ownsBitmap && frame != null;
+        if (frame != null) {
+            frame.setCallback(this);
+            frame.setAlpha(mAlpha);
+            frame.setColorFilter(mColorFilter);
+            frame.setState(getState());
+            frame.setLevel(getLevel());
+            frame.setBounds(getBounds());
+            mLazyFrameState.mLoader.setFrameSize(frame.getIntrinsicWidth(), frame.getIntrinsicHeight());
+        }
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        // A pending prefetch invalidates the frame once loaded, rather than decoding it twice.
+        if (!mLoading) {
+            ensureLoaded();
+        }
+        if (mFrame != null) {
+            mFrame.draw(canvas);
+        }
+    }
+
+    @Override
+    public boolean setVisible(boolean visible, boolean restart) {
+        final boolean changed = super.setVisible(visible, restart);
+        if (!visible && !mWindowed) {
+            // No longer the current frame. It may still be on screen, so its bitmap isn't decoded into.
+            releaseFrame(false);
+        }
+        return changed;
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        mAlpha = alpha;
+        if (mFrame != null) {
+            mFrame.setAlpha(alpha);
+        }
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter cf) {
+        mColorFilter = cf;
+        if (mFrame != null) {
+            mFrame.setColorFilter(cf);
+        }
+    }
+
+    @Override
+    public int getOpacity() {
+        return mFrame != null ? mFrame.getOpacity() : PixelFormat.TRANSLUCENT;
+    }
+
+    @Override
+    protected void onBoundsChange(Rect bounds) {
+        if (mFrame != null) {
+            mFrame.setBounds(bounds);
+        }
+    }
+
+    @Override
+    protected boolean onStateChange(int[] state) {
+        return mFrame != null && mFrame.setState(state);
+    }
+
+    @Override
+    protected boolean onLevelChange(int level) {
+        return mFrame != null && mFrame.setLevel(level);
+    }
+
+    @Override
+    public int getIntrinsicWidth() {
+        return mFrame != null ? mFrame.getIntrinsicWidth() : mLazyFrameState.mLoader.mFrameWidth;
+    }
+
+    @Override
+    public int getIntrinsicHeight() {
+        return mFrame != null ? mFrame.getIntrinsicHeight() : mLazyFrameState.mLoader.mFrameHeight;
+    }
+
+    @Override
+    public boolean getPadding(Rect padding) {
+        return mFrame != null ? mFrame.getPadding(padding) : super.getPadding(padding);
+    }
+
+    @Override
+    public ConstantState getConstantState() {
+        return mLazyFrameState;
+    }
+
+    /*
+     * Overrides from Drawable.Callback.
+     */
+
+    @Override
+    public void invalidateDrawable(Drawable who) {
+        invalidateSelf();
+    }
+
+    @Override
+    public void scheduleDrawable(Drawable who, Runnable what, long when) {
+        scheduleSelf(what, when);
+    }
+
+    @Override
+    public void unscheduleDrawable(Drawable who, Runnable what) {
+        unscheduleSelf(what);
+    }
+
+    /**
+     * Frames created from the same state share the loader, but each one loads its own drawable.
+     */
+    static class LazyFrameState extends ConstantState {
+        final Loader mLoader;
+        final int mResId;
+        final boolean mIsBitmap;
+
+        LazyFrameState(Loader loader, int resId, boolean isBitmap) {
+            mLoader = loader;
+            mResId = resId;
+            mIsBitmap = isBitmap;
+        }
+
+        @Override
+        public Drawable newDrawable() {
+            return new LazyFrameDrawable(this);
+        }
+
+        @Override
+        public int getChangingConfigurations() {
+            return 0;
+        }
+    }
+
+    /**
+     * Loads the frames of an animation. Bitmaps are decoded on a background thread, into the bitmaps of released frames
+     * when possible. Other drawables are loaded on the main thread, through {@link MaterialResources}.
+     */
+    static final class Loader {
+        private static final int MAX_POOL_SIZE = 4;
+
+        private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+        private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, "AnimationFrameLoader");
+            }
+        });
+
+        private final WeakReference<Context> mContext;
+        private final Resources mResources;
+
+        private final ArrayList<Bitmap> mBitmapPool = new ArrayList<>(MAX_POOL_SIZE);
+
+        // Size of the loaded frames, reported by frames not loaded yet.
+        int mFrameWidth = -1;
+        int mFrameHeight = -1;
+
+        Loader(Context context, Resources resources) {
+            mContext = new WeakReference<>(context);
+            mResources = resources;
+        }
+
+        /**
+         * Returns true if {@code resId} is decoded as a plain bitmap, false if it must be inflated.
+         */
+        boolean isBitmap(int resId) {
+            TypedValue value = new TypedValue();
+            mResources.getValue(resId, value, true);
+            if (value.string == null) {
+                return false;
+            }
+            String file = value.string.toString();
+            return !file.endsWith(".xml") && !file.endsWith(".9.png");
+        }
+
+        void setFrameSize(int width, int height) {
+            mFrameWidth = width;
+            mFrameHeight = height;
+        }
+
+        /**
+         * Loads the frame {@code resId} on the calling thread.
+         */
+        Drawable load(int resId, boolean isBitmap) {
+            if (isBitmap) {
+                return decode(resId);
+            }
+            return MaterialResources.getInstance(mContext.get(), mResources).getDrawable(resId);
+        }
+
+        void loadAsync(final LazyFrameDrawable frame, final int generation) {
+            final LazyFrameState state = frame.mLazyFrameState;
+            if (state.mIsBitmap) {
+                sExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        final Drawable drawable = decode(state.mResId);
+                        sMainHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                frame.onFrameLoaded(generation, drawable);
+                            }
+                        });
+                    }
+                });
+            } else {
+                // Inflation goes through MaterialResources, which is not thread-safe.
+                sMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        frame.onFrameLoaded(generation, load(state.mResId, false));
+                    }
+                });
+            }
+        }
+
+        private BitmapDrawable decode(int resId) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inMutable = true;
+            options.inBitmap = obtainPooledBitmap();
+            Bitmap bitmap;
+            try {
+                bitmap = BitmapFactory.decodeResource(mResources, resId, options);
+            } catch (IllegalArgumentException e) {
+                // The pooled bitmap can't be reused for this frame.
+                recycle(options.inBitmap);
+                options.inBitmap = null;
+                bitmap = BitmapFactory.decodeResource(mResources, resId, options);
+            }
+            return bitmap != null ? new BitmapDrawable(mResources, bitmap) : null;
+        }
+
+        private Bitmap obtainPooledBitmap() {
+            synchronized (mBitmapPool) {
+                int size = mBitmapPool.size();
+                return size > 0 ? mBitmapPool.remove(size - 1) : null;
+            }
+        }
+
+        /**
+         * Returns the bitmap of a released frame, to decode the next frames into it.
+         */
+        void recycle(Bitmap bitmap) {
+            if (bitmap == null || !bitmap.isMutable()) {
+                return;
+            }
+            synchronized (mBitmapPool) {
+                if (mBitmapPool.size() < MAX_POOL_SIZE) {
+                    mBitmapPool.add(bitmap);
+                }
+            }
+        }
+    }
+}
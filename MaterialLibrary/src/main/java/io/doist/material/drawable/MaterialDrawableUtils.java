@@ -6,8 +6,12 @@ import org.xmlpull.v1.XmlPullParserException;
 import android.content.Context;
 import android.content.res.ColorStateList;
 import android.content.res.Resources;
+import android.graphics.drawable.Animatable;
 import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
+import android.graphics.drawable.GradientDrawable;
+import android.graphics.drawable.LayerDrawable;
 import android.graphics.drawable.NinePatchDrawable;
 import android.util.AttributeSet;
 import android.util.Xml;
@@ -15,6 +19,7 @@ import android.util.Xml;
 import java.io.IOException;
 
 public class MaterialDrawableUtils {
+    private static volatile boolean sFlattenEnabled;
 
     private MaterialDrawableUtils() {
         throw new InstantiationError("Must not instantiate this class");
@@ -43,6 +48,19 @@ public class MaterialDrawableUtils {
         return drawable;
     }
 
+    /**
+     * Enables dropping the wrappers that only forward calls around the children of drawables inflated afterwards, see
+     * {@link #flatten(Drawable)}. Children may then be of a different type, eg. a {@link BitmapDrawable} instead of a
+     * {@link TintDrawable} for a {@code <bitmap>} without tint. Disabled by default.
+     */
+    public static void setFlattenEnabled(boolean enabled) {
+        sFlattenEnabled = enabled;
+    }
+
+    public static boolean isFlattenEnabled() {
+        return sFlattenEnabled;
+    }
+
     @SuppressWarnings("deprecation")
     public static Drawable createFromXmlInner(Context c, Resources r, XmlPullParser parser, AttributeSet attrs)
             throws XmlPullParserException, IOException {
@@ -108,4 +126,62 @@ public class MaterialDrawableUtils {
 
         return drawable;
     }
+
+    /**
+     * Returns {@code drawable} without the wrappers that only forward calls to the drawable they wrap, like a plain
+     * {@link WrapperDrawable} or a {@link TintDrawable} without tint, so that draw, state and bounds calls reach it
+     * directly. Meant for children of other drawables, as the returned drawable may be of a different type. Returns
+     * {@code drawable} as is unless enabled through {@link #setFlattenEnabled(boolean)}.
+     */
+    public static Drawable flatten(Drawable drawable) {
+        while (sFlattenEnabled && drawable instanceof WrapperDrawable && ((WrapperDrawable) drawable).isPureWrapper()) {
+            Drawable wrapped = ((WrapperDrawable) drawable).getWrappedDrawable();
+            // The new parent sets its own callback.
+            wrapped.setCallback(null);
+            drawable = wrapped;
+        }
+        return drawable;
+    }
+
+    /**
+     * Returns {@code drawable} wrapped in a {@link StaticCacheDrawable} if it's a layer list or a shape that is neither
+     * stateful nor animating, or {@code drawable} itself otherwise. Inflated drawables are never wrapped automatically,
+     * as it changes their type.
+     */
+    public static Drawable wrapStaticCache(Drawable drawable) {
+        return isStaticComposite(drawable) ? new StaticCacheDrawable(drawable) : drawable;
+    }
+
+    /**
+     * Returns true if {@code drawable} is a layer list or a shape that always draws the same for the same bounds.
+     */
+    private static boolean isStaticComposite(Drawable drawable) {
+        return (drawable instanceof LayerDrawable || drawable instanceof GradientDrawable) && isStatic(drawable);
+    }
+
+    private static boolean isStatic(Drawable drawable) {
+        if (drawable == null || drawable.isStateful() || drawable instanceof Animatable
+                || drawable.getConstantState() == null) {
+            return false;
+        }
+
+        if (drawable instanceof LayerDrawable) {
+            LayerDrawable layerDrawable = (LayerDrawable) drawable;
+            final int N = layerDrawable.getNumberOfLayers();
+            for (int i = 0; i < N; i++) {
+                if (!isStatic(layerDrawable.getDrawable(i))) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (drawable instanceof WrapperDrawable) {
+            return isStatic(((WrapperDrawable) drawable).getWrappedDrawable());
+        } else {
+            // Other drawables may depend on their level or hide children that aren't static.
+            return drawable instanceof GradientDrawable
+                    || drawable instanceof ColorDrawable
+                    || drawable instanceof BitmapDrawable
+                    || drawable instanceof NinePatchDrawable;
+        }
+    }
 }
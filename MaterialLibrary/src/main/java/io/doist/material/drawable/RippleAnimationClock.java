@@ -0,0 +1,62 @@
+package io.doist.material.drawable;
+
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+
+/**
+ * Advances the animations of all active {@link RippleMaterialDrawable}s from a single {@link Choreographer} frame
+ * callback, instead of an animator per drawable. Main thread only.
+ */
+final class RippleAnimationClock {
+    private static final ArrayList<RippleMaterialDrawable> sRipples = new ArrayList<>();
+    // Ripples advanced in the current frame, as they can start or stop animations while being advanced.
+    private static final ArrayList<RippleMaterialDrawable> sFrameRipples = new ArrayList<>();
+    private static boolean sFrameScheduled;
+
+    private static final Choreographer.FrameCallback sFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            sFrameScheduled = false;
+
+            sFrameRipples.addAll(sRipples);
+            for (int i = 0; i < sFrameRipples.size(); i++) {
+                RippleMaterialDrawable ripple = sFrameRipples.get(i);
+                if (!ripple.doAnimationFrame(frameTimeNanos)) {
+                    sRipples.remove(ripple);
+                }
+            }
+            sFrameRipples.clear();
+
+            if (!sRipples.isEmpty()) {
+                scheduleFrame();
+            }
+        }
+    };
+
+    private RippleAnimationClock() {
+        throw new InstantiationError("Must not instantiate this class");
+    }
+
+    /**
+     * Advances the animation of {@code ripple} every frame, until {@link RippleMaterialDrawable#doAnimationFrame(long)}
+     * returns false or {@link #stop(RippleMaterialDrawable)} is called.
+     */
+    public static void start(RippleMaterialDrawable ripple) {
+        if (!sRipples.contains(ripple)) {
+            sRipples.add(ripple);
+        }
+        scheduleFrame();
+    }
+
+    public static void stop(RippleMaterialDrawable ripple) {
+        sRipples.remove(ripple);
+    }
+
+    private static void scheduleFrame() {
+        if (!sFrameScheduled) {
+            sFrameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(sFrameCallback);
+        }
+    }
+}
@@ -3,13 +3,19 @@ package io.doist.material.drawable;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 
-import android.animation.ObjectAnimator;
-import android.animation.ValueAnimator;
 import android.content.Context;
 import android.content.res.ColorStateList;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.Shader;
 import android.graphics.drawable.Drawable;
+import android.os.Build;
 import android.util.AttributeSet;
 import android.view.ViewConfiguration;
 import android.view.animation.DecelerateInterpolator;
@@ -18,20 +24,51 @@ import java.io.IOException;
 
 import androidx.annotation.Nullable;
 import io.doist.material.R;
+import io.doist.material.color.CompiledColorStateList;
 
 /**
  * Used to replace {@link android.graphics.drawable.RippleDrawable} in older androids, with a color animation.
+ *
+ * Optionally, the highlight expands from the hotspot like a real ripple, see {@link #setExpandingRippleEnabled}.
  */
 public class RippleMaterialDrawable extends LayerMaterialDrawable {
     ColorStateList mColor;
 
+    private static final int ANIMATION_NONE = 0;
+    private static final int ANIMATION_SHOW = 1;
+    private static final int ANIMATION_HIDE = 2;
+
+    private static final int HIDE_RIPPLE_PEAK_ALPHA = 160;
+
+    private static final DecelerateInterpolator sInterpolator = new DecelerateInterpolator();
+
     int mAnimationDuration = ViewConfiguration.getLongPressTimeout();
 
-    ValueAnimator mShowRippleAnimator;
-    Drawable mShowAnimatorTarget;
-    ValueAnimator mHideRippleAnimator;
-    Drawable mHideAnimatorTarget;
+    // Animation advanced by RippleAnimationClock, setting the alpha of mAnimationTarget directly.
+    private int mAnimation = ANIMATION_NONE;
+    private Drawable mAnimationTarget;
+    // Frame time the animation started at, or -1 until its first frame.
+    private long mAnimationStartTimeNanos;
+    private long mAnimationStartPlayTime;
     private int mShowRippleAlpha;
+    private int mRippleAlpha;
+
+    // Expanding ripple. Its radius is a fraction of the distance to the farthest corner.
+    private boolean mExpandingRippleEnabled;
+    private boolean mHotspotSet;
+    private float mHotspotX;
+    private float mHotspotY;
+    private boolean mRippleCentered;
+    private float mRippleX;
+    private float mRippleY;
+    private float mRippleRadiusFraction;
+    private float mHideRadiusStartFraction;
+    private float mHideStartFraction;
+    // Alpha of the ripple layer at full opacity, drawn through the anti-aliased circle as a shader.
+    private Bitmap mRippleMask;
+    private Canvas mRippleMaskCanvas;
+    private boolean mRippleMaskDirty;
+    private final Paint mRipplePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
 
     boolean mFocused = false;
     boolean mPressed = false;
@@ -119,6 +156,118 @@ public class RippleMaterialDrawable extends LayerMaterialDrawable {
         invalidateSelf();
     }
 
+    /**
+     * Makes the highlight expand from the hotspot when pressed before Lollipop, clipped to the content, instead of
+     * only fading in and out. Lollipop and later use the framework ripple, so this has no effect there.
+     *
+     * @see #setHotspot(float, float)
+     */
+    public void setExpandingRippleEnabled(boolean enabled) {
+        mExpandingRippleEnabled = enabled;
+        if (!enabled) {
+            mRippleMask = null;
+            mRippleMaskCanvas = null;
+            mRipplePaint.setShader(null);
+        }
+        invalidateSelf();
+    }
+
+    public boolean isExpandingRippleEnabled() {
+        return mExpandingRippleEnabled;
+    }
+
+    /**
+     * Sets the origin of the next expanding ripple. Before Lollipop, views don't report it, so it must be set from
+     * their touch handling; otherwise, ripples expand from the center.
+     */
+    @Override
+    public void setHotspot(float x, float y) {
+        mHotspotX = x;
+        mHotspotY = y;
+        mHotspotSet = true;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            super.setHotspot(x, y);
+        }
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        Drawable rippleDrawable = isExpandingRipple()
+                                  ? getDrawableSafe(((RippleState) mLayerMaterialState).mRippleIndex)
+                                  : null;
+        if (rippleDrawable == null) {
+            super.draw(canvas);
+            return;
+        }
+
+        // Draw the other layers as usual, hiding the ripple layer without invalidating, then draw it expanding.
+        Callback callback = rippleDrawable.getCallback();
+        rippleDrawable.setCallback(null);
+        updateRippleMask(rippleDrawable);
+        rippleDrawable.setAlpha(0);
+        super.draw(canvas);
+        rippleDrawable.setAlpha(mRippleAlpha);
+        rippleDrawable.setCallback(callback);
+        drawExpandingRipple(canvas, rippleDrawable);
+    }
+
+    private void drawExpandingRipple(Canvas canvas, Drawable rippleDrawable) {
+        if (mRippleAlpha == 0 || mRippleRadiusFraction <= 0f || mRippleMask == null) {
+            return;
+        }
+
+        Rect bounds = rippleDrawable.getBounds();
+        float x = mRippleCentered ? bounds.exactCenterX() : mRippleX;
+        float y = mRippleCentered ? bounds.exactCenterY() : mRippleY;
+        float dx = Math.max(x - bounds.left, bounds.right - x);
+        float dy = Math.max(y - bounds.top, bounds.bottom - y);
+        float radius = (float) Math.sqrt(dx * dx + dy * dy) * mRippleRadiusFraction;
+
+        // The mask colored like the tinted layer, only inside the circle, without clipping nor an offscreen layer.
+        int color = mColor.getColorForState(getState(), mColor.getDefaultColor());
+        mRipplePaint.setColor(color);
+        mRipplePaint.setAlpha(Color.alpha(color) * mRippleAlpha / 255);
+        int saveCount = canvas.save();
+        canvas.translate(bounds.left, bounds.top);
+        canvas.drawCircle(x - bounds.left, y - bounds.top, radius, mRipplePaint);
+        canvas.restoreToCount(saveCount);
+    }
+
+    /**
+     * Renders the alpha of the ripple layer into the mask, if its size or state changed.
+     */
+    private void updateRippleMask(Drawable rippleDrawable) {
+        Rect bounds = rippleDrawable.getBounds();
+        if (bounds.isEmpty()) {
+            return;
+        }
+
+        if (mRippleMask == null || mRippleMask.getWidth() != bounds.width()
+                || mRippleMask.getHeight() != bounds.height()) {
+            mRippleMask = Bitmap.createBitmap(bounds.width(), bounds.height(), Bitmap.Config.ALPHA_8);
+            if (mRippleMaskCanvas == null) {
+                mRippleMaskCanvas = new Canvas();
+            }
+            mRippleMaskCanvas.setBitmap(mRippleMask);
+            mRipplePaint.setShader(new BitmapShader(mRippleMask, Shader.TileMode.CLAMP, Shader.TileMode.CLAMP));
+            mRippleMaskDirty = true;
+        }
+
+        if (mRippleMaskDirty) {
+            mRippleMask.eraseColor(Color.TRANSPARENT);
+            int saveCount = mRippleMaskCanvas.save();
+            mRippleMaskCanvas.translate(-bounds.left, -bounds.top);
+            rippleDrawable.setAlpha(255);
+            rippleDrawable.draw(mRippleMaskCanvas);
+            mRippleMaskCanvas.restoreToCount(saveCount);
+            mRippleMaskDirty = false;
+        }
+    }
+
+    private boolean isExpandingRipple() {
+        return mExpandingRippleEnabled && Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP;
+    }
+
     @Override
     public void inflate(Resources r, XmlPullParser parser, AttributeSet attrs)
             throws XmlPullParserException, IOException {
@@ -142,17 +291,12 @@ public class RippleMaterialDrawable extends LayerMaterialDrawable {
     @Override
     protected boolean onStateChange(int[] stateSet) {
         final boolean changed = super.onStateChange(stateSet);
-        boolean focused = false;
-        boolean pressed = false;
-        for (int state : stateSet) {
-            if (state == android.R.attr.state_focused) {
-                focused = true;
-            }
-            if (state == android.R.attr.state_pressed) {
-                pressed = true;
-            }
+        if (changed) {
+            mRippleMaskDirty = true;
         }
-        setRippleActive(focused, pressed);
+        final int stateMask = CompiledColorStateList.getStateMask(stateSet);
+        setRippleActive((stateMask & CompiledColorStateList.STATE_FOCUSED) != 0,
+                        (stateMask & CompiledColorStateList.STATE_PRESSED) != 0);
         return changed;
     }
 
@@ -169,75 +313,126 @@ public class RippleMaterialDrawable extends LayerMaterialDrawable {
     }
 
     private void startShowRippleAnimation(boolean pressed) {
-        if (mHideRippleAnimator != null && mHideRippleAnimator.isStarted()) {
-            mHideRippleAnimator.cancel();
+        if (mAnimation == ANIMATION_HIDE) {
+            stopAnimation();
         }
 
         Drawable rippleDrawable = getDrawableSafe(((RippleState) mLayerMaterialState).mRippleIndex);
         if (rippleDrawable != null) {
-            int showRippleAlpha = pressed ? 255 : 160;
-            if (mShowRippleAnimator == null) {
-                mShowRippleAnimator = ObjectAnimator.ofInt(null, "alpha", 0, showRippleAlpha);
-                mShowRippleAnimator.setInterpolator(new DecelerateInterpolator());
-                mShowRippleAnimator.setDuration(mAnimationDuration);
-                mShowRippleAlpha = showRippleAlpha;
-            } else if (showRippleAlpha != mShowRippleAlpha) {
-                mShowRippleAnimator.setIntValues(0, showRippleAlpha);
-                mShowRippleAlpha = showRippleAlpha;
-            }
-            if (mShowAnimatorTarget == null) {
-                mShowAnimatorTarget = rippleDrawable;
-                mShowRippleAnimator.setTarget(rippleDrawable);
-            }
-            if (!mShowRippleAnimator.isStarted()) {
-                mShowRippleAnimator.start();
+            // A running show animation continues towards the new alpha.
+            mShowRippleAlpha = pressed ? 255 : HIDE_RIPPLE_PEAK_ALPHA;
+            if (mAnimation != ANIMATION_SHOW) {
+                // Focus highlights the whole content, only presses expand.
+                mRippleCentered = !mHotspotSet;
+                mRippleX = mHotspotX;
+                mRippleY = mHotspotY;
+                mHotspotSet = false;
+                mRippleRadiusFraction = pressed ? 0f : 1f;
+                startAnimation(ANIMATION_SHOW, rippleDrawable, 0);
             }
         }
     }
 
     private void startHideRippleAnimation() {
         long currentTime;
-        if (mShowRippleAnimator != null && mShowRippleAnimator.isStarted()) {
-            currentTime = Math.min(mShowRippleAnimator.getCurrentPlayTime(), mAnimationDuration / 2);
-            mShowRippleAnimator.cancel();
+        if (mAnimation == ANIMATION_SHOW) {
+            currentTime = Math.min(getAnimationPlayTime(System.nanoTime()), mAnimationDuration / 2);
+            stopAnimation();
         } else {
             currentTime = mAnimationDuration / 2L;
         }
 
         Drawable rippleDrawable = getDrawableSafe(((RippleState) mLayerMaterialState).mRippleIndex);
-        if (rippleDrawable != null) {
-            if (mHideRippleAnimator == null) {
-                mHideRippleAnimator = ObjectAnimator.ofInt(null, "alpha", 0, 160, 0);
-                mHideRippleAnimator.setInterpolator(new DecelerateInterpolator());
-                mHideRippleAnimator.setDuration(mAnimationDuration);
-            }
-            if (mHideAnimatorTarget == null) {
-                mHideAnimatorTarget = rippleDrawable;
-                mHideRippleAnimator.setTarget(rippleDrawable);
-            }
-            if (!mHideRippleAnimator.isStarted()) {
-                mHideRippleAnimator.start();
-                mHideRippleAnimator.setCurrentPlayTime(currentTime);
+        if (rippleDrawable != null && mAnimation != ANIMATION_HIDE) {
+            // The ripple keeps expanding while fading out.
+            mHideRadiusStartFraction = mRippleRadiusFraction;
+            mHideStartFraction = mAnimationDuration > 0 ? currentTime / (float) mAnimationDuration : 1f;
+            startAnimation(ANIMATION_HIDE, rippleDrawable, currentTime);
+        }
+    }
+
+    private void startAnimation(int animation, Drawable target, long playTime) {
+        if (mAnimationTarget != null && mAnimationTarget != target) {
+            mAnimationTarget.setAlpha(0);
+        }
+        mAnimation = animation;
+        mAnimationTarget = target;
+        mAnimationStartTimeNanos = -1;
+        mAnimationStartPlayTime = playTime;
+        RippleAnimationClock.start(this);
+    }
+
+    private void stopAnimation() {
+        mAnimation = ANIMATION_NONE;
+        RippleAnimationClock.stop(this);
+    }
+
+    private long getAnimationPlayTime(long frameTimeNanos) {
+        if (mAnimationStartTimeNanos < 0) {
+            return mAnimationStartPlayTime;
+        }
+        return mAnimationStartPlayTime + (frameTimeNanos - mAnimationStartTimeNanos) / 1000000L;
+    }
+
+    /**
+     * Applies the alpha of the running animation at {@code frameTimeNanos}. Called by {@link RippleAnimationClock}.
+     *
+     * @return true if the animation is still running, false if it ended.
+     */
+    boolean doAnimationFrame(long frameTimeNanos) {
+        if (mAnimation == ANIMATION_NONE) {
+            return false;
+        }
+        if (mAnimationStartTimeNanos < 0) {
+            mAnimationStartTimeNanos = frameTimeNanos;
+        }
+
+        long playTime = getAnimationPlayTime(frameTimeNanos);
+        float fraction = mAnimationDuration > 0 ? Math.min(1f, playTime / (float) mAnimationDuration) : 1f;
+        float value = sInterpolator.getInterpolation(fraction);
+        int alpha;
+        if (mAnimation == ANIMATION_SHOW) {
+            alpha = (int) (mShowRippleAlpha * value);
+            if (mRippleRadiusFraction < 1f) {
+                mRippleRadiusFraction = value;
             }
+        } else {
+            // Goes up to the peak alpha in the first half, then back down to 0.
+            alpha = (int) (HIDE_RIPPLE_PEAK_ALPHA * (value < .5f ? value * 2 : (1f - value) * 2));
+            float hideFraction = mHideStartFraction < 1f
+                                 ? Math.max(0f, (fraction - mHideStartFraction) / (1f - mHideStartFraction))
+                                 : 1f;
+            mRippleRadiusFraction = mHideRadiusStartFraction + (1f - mHideRadiusStartFraction) * hideFraction;
+        }
+        mRippleAlpha = alpha;
+        mAnimationTarget.setAlpha(alpha);
+        if (isExpandingRipple()) {
+            // The radius changes even when the alpha doesn't.
+            invalidateSelf();
+        }
+
+        if (fraction >= 1f) {
+            mAnimation = ANIMATION_NONE;
+            return false;
         }
+        return true;
     }
 
     private void setRippleIndex(int index) {
         Drawable drawable = getDrawableSafe(index);
-        if (mShowRippleAnimator != null && mShowAnimatorTarget != drawable) {
-            if (mShowRippleAnimator.isStarted()) {
-                startHideRippleAnimation();
+        if (mAnimationTarget != null && mAnimationTarget != drawable) {
+            if (mAnimation != ANIMATION_NONE) {
+                stopAnimation();
             }
-            mShowAnimatorTarget = null;
-        }
-        if (mHideAnimatorTarget != null && mHideAnimatorTarget != drawable) {
-            mHideAnimatorTarget = null;
+            mAnimationTarget.setAlpha(0);
+            mAnimationTarget = null;
         }
         if (drawable != null) {
             drawable.setAlpha(0); // Init ripple drawable with alpha 0.
+            mRippleAlpha = 0;
         }
         ((RippleState) mLayerMaterialState).mRippleIndex = index;
-
+        mRippleMaskDirty = true;
     }
 
     public Drawable getDrawableSafe(int index) {
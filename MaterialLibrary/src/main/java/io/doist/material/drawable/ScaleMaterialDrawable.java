@@ -65,6 +65,7 @@ public class ScaleMaterialDrawable extends ScaleDrawable {
             }
             dr = MaterialDrawableUtils.createFromXmlInner(c, r, parser, attrs);
         }
+        dr = MaterialDrawableUtils.flatten(dr);
 
         if (dr == null) {
             throw new IllegalArgumentException("No drawable specified for <scale>");
@@ -15,6 +15,10 @@ import android.util.StateSet;
 
 import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import io.doist.material.R;
 import io.doist.material.reflection.ReflectionUtils;
@@ -25,8 +29,38 @@ public class StateListMaterialDrawable extends StateListDrawable {
 
     private final WeakReference<Context> mContext;
 
+    private StateListState mStateListState;
+    private boolean mMutated;
+
+    private StateListMaterialState mStateListMaterialState;
+
     StateListMaterialDrawable(Context context) {
         mContext = new WeakReference<>(context);
+        mStateListState = new StateListState(this);
+    }
+
+    /**
+     * Creates a drawable with the states of {@code state}, sharing the index memo of the other drawables created from
+     * it.
+     */
+    StateListMaterialDrawable(StateListMaterialState state, Resources res) {
+        mContext = state.mContext;
+        mStateListState = new StateListState(this);
+
+        StateListDrawable source = (StateListDrawable) state.mStateListState.newDrawable(res);
+        StateListState sourceState = new StateListState(source);
+        mStateListState.setVariablePadding(sourceState.isVariablePadding());
+        mStateListState.setConstantSize(sourceState.isConstantSize());
+        mStateListState.setEnterFadeDuration(sourceState.getEnterFadeDuration());
+        mStateListState.setExitFadeDuration(sourceState.getExitFadeDuration());
+        final int N = sourceState.getStateCount(source);
+        for (int i = 0; i < N; i++) {
+            mStateListState.addStateSet(sourceState.getStateSet(source, i), sourceState.getStateDrawable(source, i));
+        }
+
+        mStateListState.setIndexMemoKey(state);
+        mStateListMaterialState = state;
+        onStateChange(getState());
     }
 
     @Override
@@ -36,8 +70,6 @@ public class StateListMaterialDrawable extends StateListDrawable {
 
         inflateWithAttributes(r, parser, a, R.styleable.StateListDrawable_android_visible);
 
-        StateListState mStateListState = new StateListState(this);
-
         mStateListState.setVariablePadding(
                 a.getBoolean(R.styleable.StateListDrawable_android_variablePadding, false));
         mStateListState.setConstantSize(a.getBoolean(
@@ -96,13 +128,96 @@ public class StateListMaterialDrawable extends StateListDrawable {
                 }
                 dr = MaterialDrawableUtils.createFromXmlInner(c, r, parser, attrs);
             }
+            dr = MaterialDrawableUtils.flatten(dr);
 
             mStateListState.addStateSet(states, dr);
         }
 
+        StateIndexMemo memo = mStateListState.getIndexMemo();
+        if (memo != null) {
+            memo.clear();
+        }
+        mStateListMaterialState = null;
         onStateChange(getState());
     }
 
+    @Override
+    public void addState(int[] stateSet, Drawable drawable) {
+        // The other drawables created from the same state don't get the new state, so stop sharing their memo.
+        // Cleared first, as the super implementation reselects the child for the current state.
+        mStateListState.setIndexMemoKey(null);
+        mStateListMaterialState = null;
+        StateIndexMemo memo = mStateListState.getIndexMemo();
+        if (memo != null) {
+            memo.clear();
+        }
+        super.addState(stateSet, drawable);
+    }
+
+    @Override
+    protected boolean onStateChange(int[] stateSet) {
+        // Also called from the super constructor, before the state helper is set.
+        StateIndexMemo memo = mStateListState != null ? mStateListState.getIndexMemo() : null;
+        if (memo == null) {
+            return super.onStateChange(stateSet);
+        }
+
+        // Only the index lookup is memoized. Misses go through the framework implementation, which matches the specs
+        // and propagates the state to the children, and the index it selected is remembered.
+        int idx = memo.get(stateSet);
+        if (idx == StateIndexMemo.NOT_FOUND) {
+            boolean changed = super.onStateChange(stateSet);
+            memo.put(stateSet, getCurrentIndex());
+            return changed;
+        }
+
+        // Hits propagate the state like the framework does, including to the drawable still fading out.
+        boolean changed = false;
+        Drawable last = getLastDrawable();
+        if (last != null) {
+            changed = last.setState(stateSet);
+        }
+        changed |= selectDrawable(idx);
+        Drawable current = getCurrent();
+        if (current != null) {
+            changed |= current.setState(stateSet);
+        }
+        return changed;
+    }
+
+    private int getCurrentIndex() {
+        Object idx = ReflectionUtils.getDeclaredFieldValue(DrawableContainer.class, "mCurIndex", this);
+        return idx != null ? (int) idx : -1;
+    }
+
+    private Drawable getLastDrawable() {
+        return (Drawable) ReflectionUtils.getDeclaredFieldValue(DrawableContainer.class, "mLastDrawable", this);
+    }
+
+    @Override
+    public Drawable mutate() {
+        if (!mMutated && super.mutate() == this) {
+            // The constant state was copied, so the memo of the original doesn't apply anymore.
+            mStateListState = new StateListState(this);
+            mStateListMaterialState = null;
+            mMutated = true;
+        }
+        return this;
+    }
+
+    @Override
+    public ConstantState getConstantState() {
+        // Returned by MaterialResources for the drawables it creates, which must be of this class too.
+        ConstantState stateListState = super.getConstantState();
+        if (stateListState == null) {
+            return null;
+        }
+        if (mStateListMaterialState == null) {
+            mStateListMaterialState = new StateListMaterialState(stateListState, mContext);
+        }
+        return mStateListMaterialState;
+    }
+
     private TypedArray obtainAttributes(Context context, Resources r, AttributeSet set, int[] attrs) {
         return context != null ?
                context.obtainStyledAttributes(set, attrs) :
@@ -146,6 +261,34 @@ public class StateListMaterialDrawable extends StateListDrawable {
         return states;
     }
 
+    /**
+     * Creates {@link StateListMaterialDrawable}s from the state of the framework {@link StateListDrawable}.
+     */
+    static class StateListMaterialState extends ConstantState {
+        final ConstantState mStateListState;
+        final WeakReference<Context> mContext;
+
+        StateListMaterialState(ConstantState stateListState, WeakReference<Context> context) {
+            mStateListState = stateListState;
+            mContext = context;
+        }
+
+        @Override
+        public Drawable newDrawable() {
+            return newDrawable(null);
+        }
+
+        @Override
+        public Drawable newDrawable(Resources res) {
+            return new StateListMaterialDrawable(this, res);
+        }
+
+        @Override
+        public int getChangingConfigurations() {
+            return mStateListState.getChangingConfigurations();
+        }
+    }
+
     /**
      * Helper class to manipulate internal member mStateListState.
      */
@@ -153,6 +296,8 @@ public class StateListMaterialDrawable extends StateListDrawable {
         final Class<?> StateListStateClass;
         final Class<?> DrawableContainerStateClass;
         final Object mStateListState;
+        Object mIndexMemoKey;
+        StateIndexMemo mIndexMemo;
 
         public StateListState(StateListMaterialDrawable receiver) {
             StateListStateClass =
@@ -164,6 +309,7 @@ public class StateListMaterialDrawable extends StateListDrawable {
                     StateListDrawable.class,
                     "mStateListState",
                     receiver);
+            mIndexMemoKey = mStateListState;
         }
 
         public int addStateSet(int[] stateSet, Drawable drawable) {
@@ -176,6 +322,84 @@ public class StateListMaterialDrawable extends StateListDrawable {
             return result != null ? (int) result : 0;
         }
 
+        public int getStateCount(StateListDrawable receiver) {
+            Object result = ReflectionUtils.invokeDeclaredMethod(
+                    StateListDrawable.class,
+                    "getStateCount",
+                    ReflectionUtils.EMPTY_TYPES,
+                    receiver,
+                    ReflectionUtils.EMPTY_PARAMETERS);
+            return result != null ? (int) result : 0;
+        }
+
+        public int[] getStateSet(StateListDrawable receiver, int index) {
+            return (int[]) ReflectionUtils.invokeDeclaredMethod(
+                    StateListDrawable.class,
+                    "getStateSet",
+                    new Class<?>[] {int.class},
+                    receiver,
+                    new Object[] {index});
+        }
+
+        public Drawable getStateDrawable(StateListDrawable receiver, int index) {
+            return (Drawable) ReflectionUtils.invokeDeclaredMethod(
+                    StateListDrawable.class,
+                    "getStateDrawable",
+                    new Class<?>[] {int.class},
+                    receiver,
+                    new Object[] {index});
+        }
+
+        /**
+         * Returns the memo shared by all drawables with the same memo key, or null if it can't be accessed.
+         */
+        public StateIndexMemo getIndexMemo() {
+            if (mIndexMemo == null && mIndexMemoKey != null) {
+                mIndexMemo = StateIndexMemo.get(mIndexMemoKey);
+            }
+            return mIndexMemo;
+        }
+
+        /**
+         * Shares the memo of {@code key}, or of this constant state if null.
+         */
+        public void setIndexMemoKey(Object key) {
+            mIndexMemoKey = key != null ? key : mStateListState;
+            mIndexMemo = null;
+        }
+
+        public boolean isVariablePadding() {
+            Object variable = ReflectionUtils.getDeclaredFieldValue(
+                    DrawableContainerStateClass,
+                    "mVariablePadding",
+                    mStateListState);
+            return variable != null && (boolean) variable;
+        }
+
+        public boolean isConstantSize() {
+            Object constant = ReflectionUtils.getDeclaredFieldValue(
+                    DrawableContainerStateClass,
+                    "mConstantSize",
+                    mStateListState);
+            return constant != null && (boolean) constant;
+        }
+
+        public int getEnterFadeDuration() {
+            Object duration = ReflectionUtils.getDeclaredFieldValue(
+                    DrawableContainerStateClass,
+                    "mEnterFadeDuration",
+                    mStateListState);
+            return duration != null ? (int) duration : 0;
+        }
+
+        public int getExitFadeDuration() {
+            Object duration = ReflectionUtils.getDeclaredFieldValue(
+                    DrawableContainerStateClass,
+                    "mExitFadeDuration",
+                    mStateListState);
+            return duration != null ? (int) duration : 0;
+        }
+
         public final void setVariablePadding(boolean variable) {
             ReflectionUtils.invokeDeclaredMethod(
                     DrawableContainerStateClass,
@@ -212,4 +436,69 @@ public class StateListMaterialDrawable extends StateListDrawable {
                     new Object[] {duration});
         }
     }
+
+    /**
+     * Memo of the child index matching each state set, shared by all drawables using the same constant state, so that
+     * heavy selectors in scrolling lists only scan their specs once per distinct state set. Main thread only.
+     */
+    private static final class StateIndexMemo {
+        static final int NOT_FOUND = Integer.MIN_VALUE;
+
+        private static final int MAX_SIZE = 32;
+
+        private static final Map<Object, StateIndexMemo> sMemos = new WeakHashMap<>();
+
+        private static final StateSetKey sTmpKey = new StateSetKey();
+
+        private final HashMap<StateSetKey, Integer> mIndices = new HashMap<>();
+
+        static StateIndexMemo get(Object state) {
+            StateIndexMemo memo = sMemos.get(state);
+            if (memo == null) {
+                memo = new StateIndexMemo();
+                sMemos.put(state, memo);
+            }
+            return memo;
+        }
+
+        int get(int[] stateSet) {
+            sTmpKey.set(stateSet);
+            Integer idx = mIndices.get(sTmpKey);
+            sTmpKey.set(null);
+            return idx != null ? idx : NOT_FOUND;
+        }
+
+        void put(int[] stateSet, int idx) {
+            if (mIndices.size() >= MAX_SIZE) {
+                mIndices.clear();
+            }
+            StateSetKey key = new StateSetKey();
+            key.set(stateSet.clone());
+            mIndices.put(key, idx);
+        }
+
+        void clear() {
+            mIndices.clear();
+        }
+    }
+
+    private static final class StateSetKey {
+        int[] stateSet;
+        int hashCode;
+
+        void set(int[] stateSet) {
+            this.stateSet = stateSet;
+            hashCode = Arrays.hashCode(stateSet);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o instanceof StateSetKey && Arrays.equals(stateSet, ((StateSetKey) o).stateSet));
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
 }
@@ -0,0 +1,238 @@
+package io.doist.material.drawable;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+import android.util.LruCache;
+
+/**
+ * Draws a static drawable, one that is neither stateful nor animating, from a bitmap rendered once per size. Bitmaps
+ * are shared by all drawables created from the same constant state, until one is mutated or its wrapped drawable
+ * changes. All bitmaps share a process-wide budget, see {@link BitmapCache}.
+ *
+ * The wrapped drawable is drawn directly while this drawable has an alpha, a color filter or a level set, or when
+ * it's too large to be cached.
+ *
+ * Drawables are only cached when wrapped explicitly, inflated drawables keep their type.
+ *
+ * @see MaterialDrawableUtils#wrapStaticCache(Drawable)
+ */
+public class StaticCacheDrawable extends WrapperDrawable {
+    // A quarter of the bitmap budget, in ARGB_8888 pixels.
+    private static final int MAX_CACHED_PIXELS = BitmapCache.MAX_SIZE_BYTES / 4 / 4;
+
+    private StaticCacheState mStaticCacheState;
+    // The cache of the constant state, or a cache of this drawable only once its wrapped drawable changed.
+    private BitmapCache mCache;
+
+    private boolean mMutated = false;
+
+    private int mAlpha = 255;
+    private boolean mHasColorFilter;
+
+    // Set while forwarding changes that don't affect the cached rendering.
+    private boolean mIgnoreInvalidation;
+
+    public StaticCacheDrawable(Drawable drawable) {
+        super(drawable);
+        mStaticCacheState = (StaticCacheState) getConstantState();
+        mCache = mStaticCacheState.mCache;
+    }
+
+    protected StaticCacheDrawable(StaticCacheState state, Resources res) {
+        super(state, res);
+        mStaticCacheState = (StaticCacheState) getConstantState();
+        mCache = mStaticCacheState.mCache;
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        final Rect bounds = getBounds();
+        final int width = bounds.width();
+        final int height = bounds.height();
+        if (mCache == null || mAlpha != 255 || mHasColorFilter || getLevel() != 0
+                || width <= 0 || height <= 0 || width * height > MAX_CACHED_PIXELS) {
+            super.draw(canvas);
+            return;
+        }
+
+        Bitmap bitmap = mCache.get(getWrappedDrawable(), bounds);
+        canvas.drawBitmap(bitmap, bounds.left, bounds.top, null);
+    }
+
+    @Override
+    public void setAlpha(int alpha) {
+        mAlpha = alpha;
+        mIgnoreInvalidation = true;
+        super.setAlpha(alpha);
+        mIgnoreInvalidation = false;
+    }
+
+    @Override
+    public void setColorFilter(ColorFilter cf) {
+        mHasColorFilter = cf != null;
+        mIgnoreInvalidation = true;
+        super.setColorFilter(cf);
+        mIgnoreInvalidation = false;
+    }
+
+    @Override
+    protected boolean onLevelChange(int level) {
+        mIgnoreInvalidation = true;
+        boolean changed = super.onLevelChange(level);
+        mIgnoreInvalidation = false;
+        return changed;
+    }
+
+    @Override
+    public boolean setVisible(boolean visible, boolean restart) {
+        mIgnoreInvalidation = true;
+        boolean changed = super.setVisible(visible, restart);
+        mIgnoreInvalidation = false;
+        return changed;
+    }
+
+    @Override
+    public void invalidateDrawable(Drawable who) {
+        if (!mIgnoreInvalidation && mCache != null) {
+            // The wrapped drawable of this drawable changed, render it again. Stop sharing renderings, as the wrapped
+            // drawables of the others may not have changed.
+            if (mCache == mStaticCacheState.mCache) {
+                mCache = new BitmapCache();
+            } else {
+                mCache.clear();
+            }
+        }
+        super.invalidateDrawable(who);
+    }
+
+    @Override
+    public Drawable mutate() {
+        if (!mMutated && super.mutate() == this) {
+            // The constant state was copied, stop sharing bitmaps with the original.
+            mStaticCacheState = (StaticCacheState) getConstantState();
+            mStaticCacheState.mCache = new BitmapCache();
+            mCache = mStaticCacheState.mCache;
+            mMutated = true;
+        }
+        return this;
+    }
+
+    @Override
+    protected WrapperState createConstantState(WrapperState state) {
+        return new StaticCacheState(state);
+    }
+
+    protected static class StaticCacheState extends WrapperState {
+        BitmapCache mCache;
+
+        public StaticCacheState(WrapperState state) {
+            super(state);
+
+            if (state != null) {
+                mCache = ((StaticCacheState) state).mCache;
+            } else {
+                mCache = new BitmapCache();
+            }
+        }
+
+        @Override
+        public Drawable newDrawable() {
+            return newDrawable(null);
+        }
+
+        @Override
+        public Drawable newDrawable(Resources res) {
+            return new StaticCacheDrawable(this, res);
+        }
+    }
+
+    /**
+     * Renderings of a drawable, per size. Renderings of all caches are kept in a single LRU cache bounded in bytes, so
+     * the memory held doesn't grow with the number of cached drawables. Main thread only.
+     */
+    static final class BitmapCache {
+        static final int MAX_SIZE_BYTES = 4 * 1024 * 1024;
+
+        private static final LruCache<Key, Bitmap> sBitmaps = new LruCache<Key, Bitmap>(MAX_SIZE_BYTES) {
+            @Override
+            protected int sizeOf(Key key, Bitmap value) {
+                return value.getRowBytes() * value.getHeight();
+            }
+        };
+
+        private static final Key sTmpKey = new Key();
+
+        /**
+         * Returns the rendering of {@code drawable} sized as {@code bounds}, rendering it if it's not cached.
+         */
+        Bitmap get(Drawable drawable, Rect bounds) {
+            final int width = bounds.width();
+            final int height = bounds.height();
+            sTmpKey.set(this, width, height);
+            Bitmap bitmap = sBitmaps.get(sTmpKey);
+            sTmpKey.set(null, 0, 0);
+            if (bitmap == null) {
+                bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                Canvas canvas = new Canvas(bitmap);
+                canvas.translate(-bounds.left, -bounds.top);
+                drawable.draw(canvas);
+                Key key = new Key();
+                key.set(this, width, height);
+                sBitmaps.put(key, bitmap);
+            }
+            return bitmap;
+        }
+
+        /**
+         * Drops the renderings of this cache. Bitmaps aren't recycled, as they may still be referenced by display
+         * lists.
+         */
+        void clear() {
+            for (Key key : sBitmaps.snapshot().keySet()) {
+                if (key.mCache == this) {
+                    sBitmaps.remove(key);
+                }
+            }
+        }
+
+        /**
+         * Drops the renderings of all caches.
+         */
+        static void clearAll() {
+            sBitmaps.evictAll();
+        }
+
+        private static final class Key {
+            BitmapCache mCache;
+            int mWidth;
+            int mHeight;
+
+            void set(BitmapCache cache, int width, int height) {
+                mCache = cache;
+                mWidth = width;
+                mHeight = height;
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (this == o) {
+                    return true;
+                }
+                if (!(o instanceof Key)) {
+                    return false;
+                }
+                Key key = (Key) o;
+                return mCache == key.mCache && mWidth == key.mWidth && mHeight == key.mHeight;
+            }
+
+            @Override
+            public int hashCode() {
+                return 31 * (31 * System.identityHashCode(mCache) + mWidth) + mHeight;
+            }
+        }
+    }
+}
@@ -11,10 +11,8 @@ import android.graphics.Color;
 import android.graphics.ColorFilter;
 import android.graphics.Paint;
 import android.graphics.PorterDuff;
-import android.graphics.PorterDuffColorFilter;
 import android.graphics.drawable.ColorDrawable;
 import android.graphics.drawable.Drawable;
-import android.os.Parcel;
 import android.util.AttributeSet;
 import android.util.TypedValue;
 
@@ -22,6 +20,7 @@ import java.io.IOException;
 import java.lang.ref.WeakReference;
 
 import io.doist.material.R;
+import io.doist.material.color.CompiledColorStateList;
 import io.doist.material.reflection.ReflectionUtils;
 
 public class TintDrawable extends WrapperDrawable {
@@ -33,6 +32,16 @@ public class TintDrawable extends WrapperDrawable {
 
     private boolean mMutated = false;
 
+    // Tint currently applied as color filter, to skip updates that don't change it.
+    private boolean mTintApplied;
+    private int mAppliedTintColor;
+    private PorterDuff.Mode mAppliedTintMode;
+
+    // Mask of the current state, and the tint compiled for it, to resolve the tint color without scanning its specs.
+    private int mStateMask;
+    private ColorStateList mCompiledTintSource;
+    private CompiledColorStateList mCompiledTint;
+
     public TintDrawable(Context context, Drawable drawable) {
         this(context, drawable, null);
     }
@@ -40,7 +49,7 @@ public class TintDrawable extends WrapperDrawable {
     protected TintDrawable(TintState state, Resources res) {
         super(state, res);
         mTintState = (TintState) getConstantState();
-        updateTint();
+        initTint();
         updateAlpha();
     }
 
@@ -54,7 +63,7 @@ public class TintDrawable extends WrapperDrawable {
         mTintState = (TintState) getConstantState();
         mTintState.mTint = tint;
         mTintState.mTintEnabled = true;
-        updateTint();
+        initTint();
     }
 
     @Override
@@ -106,21 +115,29 @@ public class TintDrawable extends WrapperDrawable {
 
     @Override
     protected boolean onStateChange(int[] state) {
-        if (mTintState.mTintEnabled && mTintState.mTint != null) {
-            updateTint();
-            return true;
-        }
-
-        return false;
+        mStateMask = CompiledColorStateList.getStateMask(state);
+        return updateTint();
     }
 
     @Override
     public void setColorFilter(ColorFilter cf) {
         superSetColorFilter(cf);
+        mTintApplied = false;
         mTintState.mTintEnabled = cf == null;
         updateTint();
     }
 
+    @Override
+    public void setWrappedDrawable(Drawable drawable) {
+        super.setWrappedDrawable(drawable);
+        // The new drawable doesn't have the tint yet. Also called from the super constructor, before the state is set.
+        mTintApplied = false;
+        mStateMask = CompiledColorStateList.getStateMask(getState());
+        if (mTintState != null) {
+            updateTint();
+        }
+    }
+
     private void superSetColorFilter(ColorFilter cf) {
         if (mTintState.mDrawable instanceof ColorDrawable) {
             Paint paint =
@@ -131,6 +148,15 @@ public class TintDrawable extends WrapperDrawable {
         }
     }
 
+    @Override
+    boolean isPureWrapper() {
+        // Color filters are applied by reflection on color drawables, which don't support them before Lollipop.
+        return getClass() == TintDrawable.class
+                && !(mTintState.mTintEnabled && mTintState.mTint != null)
+                && mTintState.mBaseAlpha == 255 && mTintState.mUseAlpha == 255
+                && !(mTintState.mDrawable instanceof ColorDrawable);
+    }
+
     @Override
     public void setTint(int tint) {
         setTintList(ColorStateList.valueOf(tint));
@@ -152,13 +178,40 @@ public class TintDrawable extends WrapperDrawable {
         }
     }
 
-    private void updateTint() {
+    /**
+     * Resolves the state mask and compiles the tint, shared by all constructors so that drawables created from a
+     * constant state resolve their tint on the fast path too.
+     */
+    private void initTint() {
+        mStateMask = CompiledColorStateList.getStateMask(getState());
+        updateTint();
+    }
+
+    /**
+     * Applies the tint for the current state, unless already applied.
+     *
+     * @return true if the color filter changed, false otherwise.
+     */
+    private boolean updateTint() {
         if (mTintState.mTintEnabled && mTintState.mTint != null) {
-            superSetColorFilter(
-                    new PorterDuffColorFilter(
-                            mTintState.mTint.getColorForState(getState(), mTintState.mTint.getDefaultColor()),
-                            mTintState.mTintMode != null ? mTintState.mTintMode : DEFAULT_TINT_MODE));
+            ColorStateList tint = mTintState.mTint;
+            if (mCompiledTintSource != tint) {
+                mCompiledTintSource = tint;
+                mCompiledTint = CompiledColorStateList.get(tint);
+            }
+            int color = mCompiledTint != null
+                        ? mCompiledTint.getColorForStateMask(mStateMask)
+                        : tint.getColorForState(getState(), tint.getDefaultColor());
+            PorterDuff.Mode mode = mTintState.mTintMode != null ? mTintState.mTintMode : DEFAULT_TINT_MODE;
+            if (!mTintApplied || color != mAppliedTintColor || mode != mAppliedTintMode) {
+                superSetColorFilter(TintFilterCache.get(color, mode));
+                mTintApplied = true;
+                mAppliedTintColor = color;
+                mAppliedTintMode = mode;
+                return true;
+            }
         }
+        return false;
     }
 
     @Override
@@ -176,22 +229,10 @@ public class TintDrawable extends WrapperDrawable {
     @Override
     public Drawable mutate() {
         if (!mMutated && super.mutate() == this) {
-            // Get constant state, because we are creating a new one in super.mutate().
-            TintState tintState = (TintState) getConstantState();
-
-            if (mTintState.mTint != null) {
-                // Clone mTint if not null.
-                final Parcel p = Parcel.obtain();
-                mTintState.mTint.writeToParcel(p, 0);
-                p.setDataPosition(0);
-                tintState.mTint = ColorStateList.CREATOR.createFromParcel(p);
-            }
-            tintState.mTintMode = mTintState.mTintMode;
-            tintState.mTintEnabled = mTintState.mTintEnabled;
-            tintState.mBaseAlpha = mTintState.mBaseAlpha;
-            tintState.mUseAlpha = mTintState.mUseAlpha;
-
-            mTintState = tintState;
+            // Get constant state, because we are creating a new one in super.mutate(). It copies the tint fields.
+            // ColorStateList is immutable, so mTint is shared with the original state: setTintList() replaces it
+            // instead of modifying it, which only affects this state.
+            mTintState = (TintState) getConstantState();
             mMutated = true;
         }
         return this;
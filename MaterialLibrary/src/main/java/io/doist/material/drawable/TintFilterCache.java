@@ -0,0 +1,40 @@
+package io.doist.material.drawable;
+
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffColorFilter;
+
+import androidx.collection.LongSparseArray;
+
+/**
+ * Process-wide cache of the {@link PorterDuffColorFilter}s used for tinting, keyed by color and mode.
+ *
+ * Filters are shared between drawables, so they must never be modified. The cache is bounded and simply cleared when
+ * full, as only a handful of tint colors are in use at any given time.
+ */
+final class TintFilterCache {
+    private static final int MAX_SIZE = 64;
+
+    private static final LongSparseArray<PorterDuffColorFilter> sFilters = new LongSparseArray<>();
+
+    private TintFilterCache() {
+        throw new InstantiationError("Must not instantiate this class");
+    }
+
+    /**
+     * Returns a filter tinting with {@code color} in {@code mode}.
+     */
+    public static PorterDuffColorFilter get(int color, PorterDuff.Mode mode) {
+        long key = ((long) mode.ordinal() << 32) | (color & 0xffffffffL);
+        synchronized (sFilters) {
+            PorterDuffColorFilter filter = sFilters.get(key);
+            if (filter == null) {
+                if (sFilters.size() >= MAX_SIZE) {
+                    sFilters.clear();
+                }
+                filter = new PorterDuffColorFilter(color, mode);
+                sFilters.put(key, filter);
+            }
+            return filter;
+        }
+    }
+}
@@ -36,7 +36,8 @@ public class WrapperDrawable extends Drawable implements Drawable.Callback {
         } else {
             drawable = mWrapperState.mDrawable.getConstantState().newDrawable();
         }
-        mWrapperState.setDrawable(drawable, this);
+        // The new drawable is private to this wrapper, so pure wrappers around it can be dropped.
+        mWrapperState.setDrawable(MaterialDrawableUtils.flatten(drawable), this);
     }
 
     public void setWrappedDrawable(Drawable drawable) {
@@ -50,6 +51,15 @@ public class WrapperDrawable extends Drawable implements Drawable.Callback {
         return mWrapperState.mDrawable;
     }
 
+    /**
+     * Returns true if this drawable only forwards calls to the one it wraps, so that it can be replaced by it.
+     *
+     * @see MaterialDrawableUtils#flatten(Drawable)
+     */
+    boolean isPureWrapper() {
+        return getClass() == WrapperDrawable.class;
+    }
+
     @Override
     public void inflate(Resources r, XmlPullParser parser, AttributeSet attrs)
             throws XmlPullParserException, IOException {
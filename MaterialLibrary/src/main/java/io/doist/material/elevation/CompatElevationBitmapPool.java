@@ -0,0 +1,114 @@
+package io.doist.material.elevation;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+
+/**
+ * Size-bucketed pool of {@link Bitmap.Config#ALPHA_8} bitmaps used for the shadow corner masks.
+ *
+ * Bitmap dimensions are rounded up to the bucket size, so that corners with slightly different shadow lengths can
+ * share the same bitmaps. Acquired bitmaps are always cleared. Safe to use from any thread.
+ */
+final class CompatElevationBitmapPool {
+    // Granularity of the size buckets, in pixels.
+    private static final int BUCKET_SIZE = 8;
+
+    // Maximum number of bytes kept around in the pool.
+    private static final int MAX_POOL_SIZE_BYTES = 512 * 1024;
+
+    private static final SparseArray<ArrayList<Bitmap>> sBuckets = new SparseArray<>();
+    private static int sPoolSizeBytes = 0;
+
+    private CompatElevationBitmapPool() {
+        throw new InstantiationError("Must not instantiate this class");
+    }
+
+    /**
+     * Returns a cleared {@link Bitmap.Config#ALPHA_8} bitmap that is at least {@code width} by {@code height}.
+     */
+    public static Bitmap acquire(int width, int height) {
+        width = getBucketSize(width);
+        height = getBucketSize(height);
+
+        Bitmap bitmap = null;
+        synchronized (sBuckets) {
+            ArrayList<Bitmap> bucket = sBuckets.get(getBucketKey(width, height));
+            if (bucket != null && !bucket.isEmpty()) {
+                bitmap = bucket.remove(bucket.size() - 1);
+                sPoolSizeBytes -= getByteCount(bitmap);
+            }
+        }
+
+        if (bitmap != null) {
+            bitmap.eraseColor(Color.TRANSPARENT);
+        } else {
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+            CompatElevationMetrics.recordBitmapAllocation(getByteCount(bitmap));
+        }
+        return bitmap;
+    }
+
+    /**
+     * Returns {@code bitmap} to the pool. It must not be drawn or referenced by the caller afterwards.
+     */
+    public static void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()
+                || bitmap.getConfig() != Bitmap.Config.ALPHA_8) {
+            return;
+        }
+
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        if (width != getBucketSize(width) || height != getBucketSize(height)) {
+            // Not created by the pool.
+            return;
+        }
+
+        int byteCount = getByteCount(bitmap);
+        synchronized (sBuckets) {
+            if (sPoolSizeBytes + byteCount > MAX_POOL_SIZE_BYTES) {
+                return;
+            }
+
+            int key = getBucketKey(width, height);
+            ArrayList<Bitmap> bucket = sBuckets.get(key);
+            if (bucket == null) {
+                bucket = new ArrayList<>(4);
+                sBuckets.put(key, bucket);
+            }
+            for (int i = bucket.size() - 1; i >= 0; i--) {
+                if (bucket.get(i) == bitmap) {
+                    // Already pooled.
+                    return;
+                }
+            }
+            bucket.add(bitmap);
+            sPoolSizeBytes += byteCount;
+        }
+    }
+
+    /**
+     * Drops all pooled bitmaps.
+     */
+    public static void clear() {
+        synchronized (sBuckets) {
+            sBuckets.clear();
+            sPoolSizeBytes = 0;
+        }
+    }
+
+    private static int getBucketSize(int size) {
+        return Math.max(BUCKET_SIZE, (size + BUCKET_SIZE - 1) / BUCKET_SIZE * BUCKET_SIZE);
+    }
+
+    private static int getBucketKey(int width, int height) {
+        return (width << 16) | (height & 0xffff);
+    }
+
+    private static int getByteCount(Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+}
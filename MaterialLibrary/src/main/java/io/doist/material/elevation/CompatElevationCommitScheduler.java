@@ -0,0 +1,74 @@
+package io.doist.material.elevation;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+
+/**
+ * Commits the results of {@link CompatElevationUpdateRunnable}s that ran in the background on the main thread, all
+ * at once in the next {@link Choreographer} frame callback. Updates that complete before the next vsync are applied
+ * together, and their invalidations handled in a single traversal.
+ */
+final class CompatElevationCommitScheduler {
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    // Obtained on the main thread, as Choreographer instances are per looper. Posting to it is thread-safe.
+    private static volatile Choreographer sChoreographer;
+
+    private static final Object sLock = new Object();
+    private static ArrayList<CompatElevationUpdateRunnable> sPendingUpdates = new ArrayList<>();
+    private static ArrayList<CompatElevationUpdateRunnable> sCommittingUpdates = new ArrayList<>();
+    private static boolean sFrameScheduled;
+
+    private static final Choreographer.FrameCallback sFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            ArrayList<CompatElevationUpdateRunnable> updates;
+            synchronized (sLock) {
+                updates = sPendingUpdates;
+                sPendingUpdates = sCommittingUpdates;
+                sCommittingUpdates = updates;
+                sFrameScheduled = false;
+            }
+
+            for (int i = 0; i < updates.size(); i++) {
+                updates.get(i).deliver();
+            }
+            updates.clear();
+        }
+    };
+
+    private static final Runnable sPostFrameCallbackRunnable = new Runnable() {
+        @Override
+        public void run() {
+            sChoreographer = Choreographer.getInstance();
+            sChoreographer.postFrameCallback(sFrameCallback);
+        }
+    };
+
+    private CompatElevationCommitScheduler() {
+        throw new InstantiationError("Must not instantiate this class");
+    }
+
+    /**
+     * Queues {@code update} to be delivered to its listener in the next frame. Can be called from any thread.
+     */
+    public static void post(CompatElevationUpdateRunnable update) {
+        synchronized (sLock) {
+            sPendingUpdates.add(update);
+            if (sFrameScheduled) {
+                return;
+            }
+            sFrameScheduled = true;
+        }
+
+        Choreographer choreographer = sChoreographer;
+        if (choreographer != null) {
+            choreographer.postFrameCallback(sFrameCallback);
+        } else {
+            sMainHandler.post(sPostFrameCallbackRunnable);
+        }
+    }
+}
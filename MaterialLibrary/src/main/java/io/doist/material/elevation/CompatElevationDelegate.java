@@ -1,13 +1,18 @@
 package io.doist.material.elevation;
 
+import android.animation.Animator;
+import android.animation.AnimatorListenerAdapter;
+import android.animation.ValueAnimator;
 import android.annotation.TargetApi;
 import android.content.res.TypedArray;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
 import android.os.Build;
 import androidx.core.view.ViewCompat;
 import android.util.AttributeSet;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 
 import io.doist.material.R;
 
@@ -32,18 +37,36 @@ import io.doist.material.R;
  * Worst case scenario, {@link #onDetachedFromWindow()} can be called to make modifications based on the original state,
  * followed by {@link #onAttachedToWindow()}.
  *
+ * The elevated {@link View} should also proxy {@link View#onWindowVisibilityChanged(int)} to
+ * {@link #onWindowVisibilityChanged(int)}, so that no shadow work happens while its window is hidden.
+ *
  * Caveat:
  * - Elevated {@link ViewGroup.LayoutParams#MATCH_PARENT} views will be clipped by their parent. Use
  * {@link android.R.attr#clipChildren} explicitly or, if it won't be visible, hide the side (preferred).
  */
 public class CompatElevationDelegate {
-    private static final int SHOW_SHADOW_LEFT = 0x01;
-    private static final int SHOW_SHADOW_TOP = 0x02;
-    private static final int SHOW_SHADOW_RIGHT = 0x04;
-    private static final int SHOW_SHADOW_BOTTOM = 0x08;
-    private static final int SHOW_SHADOW_START = 0x10;
-    private static final int SHOW_SHADOW_END = 0x20;
-    private static final int SHOW_ALL_SHADOWS = 0xff;
+    /**
+     * Shadows are drawn as four gradient edges and four corner bitmaps. Default.
+     *
+     * @see #setShadowRenderMode(int)
+     */
+    public static final int SHADOW_RENDER_MODE_EDGES = 0;
+
+    /**
+     * Shadows are drawn from a single stretchable texture, in one draw call. Textures are shared by all views with
+     * the same elevation, corner radius and relative position to the light, which suits lists of elevated items.
+     *
+     * @see #setShadowRenderMode(int)
+     */
+    public static final int SHADOW_RENDER_MODE_TEXTURE = 1;
+
+    static final int SHOW_SHADOW_LEFT = 0x01;
+    static final int SHOW_SHADOW_TOP = 0x02;
+    static final int SHOW_SHADOW_RIGHT = 0x04;
+    static final int SHOW_SHADOW_BOTTOM = 0x08;
+    static final int SHOW_SHADOW_START = 0x10;
+    static final int SHOW_SHADOW_END = 0x20;
+    static final int SHOW_ALL_SHADOWS = 0xff;
 
     private View mView;
     private float mElevation = 0f;
@@ -52,6 +75,45 @@ public class CompatElevationDelegate {
     private boolean mShowShadowTop = true;
     private boolean mShowShadowRight = true;
     private boolean mShowShadowBottom = true;
+    private int mShadowRenderMode = SHADOW_RENDER_MODE_EDGES;
+
+    private CompatElevationOutline mShadowOutline;
+    private boolean mShadowCacheEnabled;
+
+    private final Rect mTmpPadding = new Rect();
+
+    // Crossfades between elevations, see animateElevation(float, long).
+    private ValueAnimator mElevationAnimator;
+
+    // Kicks off the shadow generation once the view is laid out, right before it's first drawn.
+    private ViewTreeObserver mPrepareShadowObserver;
+    private final ViewTreeObserver.OnPreDrawListener mPrepareShadowListener =
+            new ViewTreeObserver.OnPreDrawListener() {
+                @Override
+                public boolean onPreDraw() {
+                    removePrepareShadowListener();
+
+                    CompatElevationDrawable elevationDrawable = getElevationDrawableWrapper();
+                    if (elevationDrawable != null && mView.getWidth() > 0 && mView.getHeight() > 0) {
+                        // Same bounds the view sets when drawing its background.
+                        elevationDrawable.setBounds(0, 0, mView.getWidth(), mView.getHeight());
+                        elevationDrawable.prepareShadow();
+                    }
+                    return true;
+                }
+            };
+
+    // Recalculates the shadow and its padding when the screen size or density changes, while attached.
+    private final CompatElevationEnvironment.OnEnvironmentChangedListener mEnvironmentChangedListener =
+            new CompatElevationEnvironment.OnEnvironmentChangedListener() {
+                @Override
+                public void onEnvironmentChanged() {
+                    if (getElevationDrawableWrapper() != null) {
+                        unwrap();
+                        wrap();
+                    }
+                }
+            };
 
     public CompatElevationDelegate(View view) {
         this(view, null, 0);
@@ -70,20 +132,34 @@ public class CompatElevationDelegate {
                     attrs, R.styleable.CompatElevationDelegate, defStyleAttr, 0);
             mElevation = a.getDimensionPixelOffset(R.styleable.CompatElevationDelegate_elevation, 0);
             mCornerRadius = a.getDimensionPixelOffset(R.styleable.CompatElevationDelegate_cornerRadius, 0);
-            int shownShadows = a.getInt(R.styleable.CompatElevationDelegate_shownShadows, SHOW_ALL_SHADOWS);
-            boolean isLtr = ViewCompat.getLayoutDirection(view) == ViewCompat.LAYOUT_DIRECTION_LTR;
-            boolean showShadowStart = (shownShadows & SHOW_SHADOW_START) == SHOW_SHADOW_START;
-            boolean showShadowEnd = (shownShadows & SHOW_SHADOW_END) == SHOW_SHADOW_END;
-            mShowShadowLeft = (shownShadows & SHOW_SHADOW_LEFT) == SHOW_SHADOW_LEFT
-                    || isLtr && showShadowStart || !isLtr && showShadowEnd;
+            int shownShadows = resolveShownShadows(
+                    a.getInt(R.styleable.CompatElevationDelegate_shownShadows, SHOW_ALL_SHADOWS), view);
+            mShowShadowLeft = (shownShadows & SHOW_SHADOW_LEFT) == SHOW_SHADOW_LEFT;
             mShowShadowTop = (shownShadows & SHOW_SHADOW_TOP) == SHOW_SHADOW_TOP;
-            mShowShadowRight = (shownShadows & SHOW_SHADOW_RIGHT) == SHOW_SHADOW_RIGHT
-                    || isLtr && showShadowEnd || !isLtr && showShadowStart;
+            mShowShadowRight = (shownShadows & SHOW_SHADOW_RIGHT) == SHOW_SHADOW_RIGHT;
             mShowShadowBottom = (shownShadows & SHOW_SHADOW_BOTTOM) == SHOW_SHADOW_BOTTOM;
             a.recycle();
         }
     }
 
+    /**
+     * Resolves the start / end flags of {@code shownShadows} into left / right, according to {@code view}'s layout
+     * direction.
+     */
+    static int resolveShownShadows(int shownShadows, View view) {
+        boolean isLtr = ViewCompat.getLayoutDirection(view) == ViewCompat.LAYOUT_DIRECTION_LTR;
+        boolean showShadowStart = (shownShadows & SHOW_SHADOW_START) == SHOW_SHADOW_START;
+        boolean showShadowEnd = (shownShadows & SHOW_SHADOW_END) == SHOW_SHADOW_END;
+        int resolved = shownShadows & (SHOW_SHADOW_LEFT | SHOW_SHADOW_TOP | SHOW_SHADOW_RIGHT | SHOW_SHADOW_BOTTOM);
+        if (isLtr && showShadowStart || !isLtr && showShadowEnd) {
+            resolved |= SHOW_SHADOW_LEFT;
+        }
+        if (isLtr && showShadowEnd || !isLtr && showShadowStart) {
+            resolved |= SHOW_SHADOW_RIGHT;
+        }
+        return resolved;
+    }
+
     /**
      * @see View#getElevation()
      */
@@ -95,6 +171,8 @@ public class CompatElevationDelegate {
      * @see View#setElevation(float)
      */
     public void setElevation(float elevation) {
+        cancelElevationAnimation();
+
         boolean needsWrap = elevation != mElevation;
         mElevation = elevation;
 
@@ -110,6 +188,78 @@ public class CompatElevationDelegate {
         }
     }
 
+    /**
+     * Animates the elevation to {@code elevation} over {@code duration} milliseconds, by crossfading the shadows of the
+     * current and target elevations. Both are rendered once and cached, so nothing is regenerated while animating.
+     *
+     * The padding, size and margins are adjusted to the highest of both elevations for the whole animation, in place,
+     * so the wrapper background is kept.
+     */
+    public void animateElevation(float elevation, long duration) {
+        cancelElevationAnimation();
+
+        final float startElevation = mElevation;
+        CompatElevationDrawable elevationDrawable = getElevationDrawableWrapper();
+        if (elevationDrawable == null || duration <= 0 || elevation == startElevation) {
+            setElevation(elevation);
+            return;
+        }
+
+        mElevation = elevation;
+        // Make room for the higher shadow right away, if growing.
+        int paddingLeft = elevationDrawable.getPaddingLeft();
+        int paddingTop = elevationDrawable.getPaddingTop();
+        int paddingRight = elevationDrawable.getPaddingRight();
+        int paddingBottom = elevationDrawable.getPaddingBottom();
+        elevationDrawable.crossfadeElevation(startElevation, elevation);
+        offsetPadding(elevationDrawable.getPaddingLeft() - paddingLeft,
+                      elevationDrawable.getPaddingTop() - paddingTop,
+                      elevationDrawable.getPaddingRight() - paddingRight,
+                      elevationDrawable.getPaddingBottom() - paddingBottom);
+
+        mElevationAnimator = ValueAnimator.ofFloat(0f, 1f);
+        mElevationAnimator.setDuration(duration);
+        mElevationAnimator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+            @Override
+            public void onAnimationUpdate(ValueAnimator animation) {
+                CompatElevationDrawable elevationDrawable = getElevationDrawableWrapper();
+                if (elevationDrawable != null) {
+                    elevationDrawable.setCrossfadeFraction(animation.getAnimatedFraction());
+                }
+            }
+        });
+        mElevationAnimator.addListener(new AnimatorListenerAdapter() {
+            @Override
+            public void onAnimationEnd(Animator animation) {
+                mElevationAnimator = null;
+
+                CompatElevationDrawable elevationDrawable = getElevationDrawableWrapper();
+                if (elevationDrawable != null) {
+                    // Shrink to the lower shadow, if it was. Its texture is drawn until the shadow is regenerated.
+                    int paddingLeft = elevationDrawable.getPaddingLeft();
+                    int paddingTop = elevationDrawable.getPaddingTop();
+                    int paddingRight = elevationDrawable.getPaddingRight();
+                    int paddingBottom = elevationDrawable.getPaddingBottom();
+                    elevationDrawable.endCrossfade();
+                    offsetPadding(elevationDrawable.getPaddingLeft() - paddingLeft,
+                                  elevationDrawable.getPaddingTop() - paddingTop,
+                                  elevationDrawable.getPaddingRight() - paddingRight,
+                                  elevationDrawable.getPaddingBottom() - paddingBottom);
+                }
+            }
+        });
+        mElevationAnimator.start();
+    }
+
+    /**
+     * Ends any elevation animation, jumping to the target elevation.
+     */
+    private void cancelElevationAnimation() {
+        if (mElevationAnimator != null) {
+            mElevationAnimator.end();
+        }
+    }
+
     /**
      * Sets the corner radius for the elevation shadow.
      * For regular backgrounds, it's 0. For circular backgrounds, it's the same as the width and height.
@@ -146,20 +296,130 @@ public class CompatElevationDelegate {
         }
     }
 
+    /**
+     * Sets how the shadow is drawn, either {@link #SHADOW_RENDER_MODE_EDGES} or {@link #SHADOW_RENDER_MODE_TEXTURE}.
+     */
+    public void setShadowRenderMode(int shadowRenderMode) {
+        mShadowRenderMode = shadowRenderMode;
+
+        CompatElevationDrawable elevationDrawable = getElevationDrawableWrapper();
+        if (elevationDrawable != null) {
+            elevationDrawable.setRenderMode(shadowRenderMode);
+        }
+    }
+
+    /**
+     * Sets the shape of the shadow, or null to use a rectangle rounded by the corner radius (default).
+     */
+    public void setShadowOutline(CompatElevationOutline shadowOutline) {
+        mShadowOutline = shadowOutline;
+
+        CompatElevationDrawable elevationDrawable = getElevationDrawableWrapper();
+        if (elevationDrawable != null) {
+            elevationDrawable.setOutline(shadowOutline);
+        }
+    }
+
+    /**
+     * Enables rendering the shadow into a bitmap, redrawn only when the shadow or the shadow lengths change, not when
+     * the view merely scrolls or moves without changing them. The shadow then costs a single bitmap draw per frame,
+     * and the background is drawn over it as usual, so animated backgrounds don't redraw the bitmap.
+     *
+     * Suits elevated views drawing complex shadows, eg. outlines in lists, at the cost of a bitmap the size of the
+     * background and its shadow. Disabled by default.
+     */
+    public void setShadowCacheEnabled(boolean shadowCacheEnabled) {
+        mShadowCacheEnabled = shadowCacheEnabled;
+
+        CompatElevationDrawable elevationDrawable = getElevationDrawableWrapper();
+        if (elevationDrawable != null) {
+            elevationDrawable.setCacheEnabled(shadowCacheEnabled);
+        }
+    }
+
+    /**
+     * Starts rendering the shadow in the background for when the {@link View} is laid out at the given on-screen
+     * bounds, so that it's ready by the time it's first drawn. Main thread only.
+     *
+     * Meant for lists, where the position of upcoming items can be predicted before they are drawn, eg. from
+     * {@code RecyclerView.Adapter#onBindViewHolder}, which also runs during {@code RecyclerView}'s idle-time
+     * prefetch, using the last laid out size of the item and its expected position on screen.
+     *
+     * Prewarmed shadows are textures shared by all views with the same parameters. They are drawn directly with
+     * {@link #SHADOW_RENDER_MODE_TEXTURE}, and until the edges and corners are ready with
+     * {@link #SHADOW_RENDER_MODE_EDGES}. Outline shadows are not prewarmed.
+     */
+    public void prewarmShadow(int left, int top, int right, int bottom) {
+        if (mShadowOutline != null) {
+            return;
+        }
+
+        Drawable background = getOriginalBackground();
+        if (background == null || !background.getPadding(mTmpPadding)) {
+            mTmpPadding.setEmpty();
+        }
+        CompatElevationDrawable.prewarm(mView.getContext(), mElevation, mCornerRadius,
+                                        mShowShadowLeft, mShowShadowTop, mShowShadowRight, mShowShadowBottom,
+                                        left, top, right, bottom, mTmpPadding);
+    }
+
     /**
      * Wraps {@link View}'s background in an {@link CompatElevationDrawable} and adjusts its padding, size and margins.
+     * The shadow starts being generated in the background before the first draw.
      */
     public void onAttachedToWindow() {
         wrap();
+
+        CompatElevationEnvironment.getInstance(mView.getContext()).registerListener(mEnvironmentChangedListener);
+
+        if (getElevationDrawableWrapper() != null && mPrepareShadowObserver == null) {
+            mPrepareShadowObserver = mView.getViewTreeObserver();
+            mPrepareShadowObserver.addOnPreDrawListener(mPrepareShadowListener);
+        }
     }
 
     /**
      * Unwraps the {@link View}'s background, resetting the original padding, size and margins.
      */
     public void onDetachedFromWindow() {
+        removePrepareShadowListener();
+
+        // The wrapper drawable is about to be dropped, don't bother finishing the animation.
+        if (mElevationAnimator != null) {
+            mElevationAnimator.removeAllListeners();
+            mElevationAnimator.removeAllUpdateListeners();
+            mElevationAnimator.cancel();
+            mElevationAnimator = null;
+        }
+
+        CompatElevationEnvironment.getInstance(mView.getContext()).unregisterListener(mEnvironmentChangedListener);
+
         unwrap();
     }
 
+    /**
+     * Suspends shadow updates while the {@link View}'s window is not visible, eg. when its activity is stopped.
+     * A single regeneration happens when it becomes visible again, if needed.
+     */
+    public void onWindowVisibilityChanged(int visibility) {
+        CompatElevationDrawable elevationDrawable = getElevationDrawableWrapper();
+        if (elevationDrawable != null) {
+            elevationDrawable.setVisible(
+                    visibility == View.VISIBLE && mView.getVisibility() == View.VISIBLE, false);
+        }
+    }
+
+    private void removePrepareShadowListener() {
+        if (mPrepareShadowObserver != null) {
+            if (mPrepareShadowObserver.isAlive()) {
+                mPrepareShadowObserver.removeOnPreDrawListener(mPrepareShadowListener);
+            } else {
+                mView.getViewTreeObserver().removeOnPreDrawListener(mPrepareShadowListener);
+            }
+            mPrepareShadowObserver = null;
+        }
+    }
+
     /**
      * Returns the {@link View}'s background excluding the wrapper elevation background.
      */
@@ -303,6 +563,19 @@ public class CompatElevationDelegate {
                                                                        : getElevationPaddingRight();
     }
 
+    /**
+     * Returns the number of times the shadow of the current wrapper background was regenerated, while
+     * {@link CompatElevationMetrics} was enabled.
+     */
+    public int getShadowRegenerationCount() {
+        CompatElevationDrawable elevationDrawable = getElevationDrawableWrapper();
+        if (elevationDrawable != null) {
+            return elevationDrawable.getRegenerationCount();
+        } else {
+            return 0;
+        }
+    }
+
     /**
      * Returns a copy of the {@link View}'s {@link ViewGroup.LayoutParams} excluding the size / margin modifications.
      */
@@ -362,45 +635,15 @@ public class CompatElevationDelegate {
                     new CompatElevationDrawable(background, mView, mElevation, mCornerRadius,
                                                 mShowShadowLeft, mShowShadowTop,
                                                 mShowShadowRight, mShowShadowBottom);
+            elevationDrawable.setRenderMode(mShadowRenderMode);
+            elevationDrawable.setOutline(mShadowOutline);
+            elevationDrawable.setCacheEnabled(mShadowCacheEnabled);
             // Set elevation wrapper drawable around the background.
             mView.setBackground(elevationDrawable);
 
-            int paddingLeft = elevationDrawable.getPaddingLeft();
-            int paddingTop = elevationDrawable.getPaddingTop();
-            int paddingRight = elevationDrawable.getPaddingRight();
-            int paddingBottom = elevationDrawable.getPaddingBottom();
-
             // Increment the padding to accommodate the elevation.
-            mView.setPadding(mView.getPaddingLeft() + paddingLeft,
-                             mView.getPaddingTop() + paddingTop,
-                             mView.getPaddingRight() + paddingRight,
-                             mView.getPaddingBottom() + paddingBottom);
-
-            // Increases minimum width and minimum height.
-            int minWidth = mView.getMinimumWidth();
-            if (minWidth > 0) {
-                mView.setMinimumWidth(minWidth + (paddingLeft + paddingRight));
-            }
-            int minHeight = mView.getMinimumHeight();
-            if (minHeight > 0) {
-                mView.setMinimumHeight(minHeight + (paddingTop + paddingBottom));
-            }
-
-            // Increase layout size (if using explicit dimensions) and decrease the margins proportionally to padding.
-            if (params.width > 0) {
-                params.width += paddingLeft + paddingRight;
-            }
-            if (params.height > 0) {
-                params.height += paddingTop + paddingBottom;
-            }
-            if (params instanceof ViewGroup.MarginLayoutParams) {
-                ViewGroup.MarginLayoutParams marginLayoutParams = (ViewGroup.MarginLayoutParams) params;
-                marginLayoutParams.leftMargin -= paddingLeft;
-                marginLayoutParams.topMargin -= paddingTop;
-                marginLayoutParams.rightMargin -= paddingRight;
-                marginLayoutParams.bottomMargin -= paddingBottom;
-            }
-            mView.setLayoutParams(params);
+            offsetPadding(elevationDrawable.getPaddingLeft(), elevationDrawable.getPaddingTop(),
+                          elevationDrawable.getPaddingRight(), elevationDrawable.getPaddingBottom());
         }
     }
 
@@ -409,48 +652,59 @@ public class CompatElevationDelegate {
         ViewGroup.LayoutParams params = mView.getLayoutParams();
         if (background != null && background instanceof CompatElevationDrawable && params != null) {
             CompatElevationDrawable elevationDrawable = (CompatElevationDrawable) background;
+            // The wrapper is dropped, its shadow work is no longer needed.
+            elevationDrawable.suspendUpdates();
 
             // Background.
             mView.setBackground(null); // Removes the callback.
             mView.setBackground(elevationDrawable.getWrappedDrawable());
 
-            int paddingLeft = elevationDrawable.getPaddingLeft();
-            int paddingTop = elevationDrawable.getPaddingTop();
-            int paddingRight = elevationDrawable.getPaddingRight();
-            int paddingBottom = elevationDrawable.getPaddingBottom();
-
-            // Padding.
-            mView.setPadding(mView.getPaddingLeft() - paddingLeft,
-                             mView.getPaddingTop() - paddingTop,
-                             mView.getPaddingRight() - paddingRight,
-                             mView.getPaddingBottom() - paddingBottom);
-
-            // Minimum width and minimum height.
-            int minWidth = mView.getMinimumWidth();
-            if (minWidth > 0) {
-                mView.setMinimumWidth(minWidth - (paddingLeft + paddingRight));
-            }
-            int minHeight = mView.getMinimumHeight();
-            if (minHeight > 0) {
-                mView.setMinimumHeight(minHeight - (paddingTop + paddingBottom));
-            }
+            // Padding, size and margins.
+            offsetPadding(-elevationDrawable.getPaddingLeft(), -elevationDrawable.getPaddingTop(),
+                          -elevationDrawable.getPaddingRight(), -elevationDrawable.getPaddingBottom());
+        }
+    }
 
-            // Layout size and margins.
-            if (params.width > 0) {
-                params.width -= paddingLeft + paddingRight;
-            }
-            if (params.height > 0) {
-                params.height -= paddingTop + paddingBottom;
-            }
-            if (params instanceof ViewGroup.MarginLayoutParams) {
-                ViewGroup.MarginLayoutParams marginLayoutParams = (ViewGroup.MarginLayoutParams) params;
-                marginLayoutParams.leftMargin += paddingLeft;
-                marginLayoutParams.topMargin += paddingTop;
-                marginLayoutParams.rightMargin += paddingRight;
-                marginLayoutParams.bottomMargin += paddingBottom;
-            }
-            mView.setLayoutParams(params);
+    /**
+     * Offsets the padding by the given shadow padding, growing the minimum and explicit layout sizes and shrinking the
+     * margins proportionally.
+     */
+    private void offsetPadding(int left, int top, int right, int bottom) {
+        ViewGroup.LayoutParams params = mView.getLayoutParams();
+        if (params == null || left == 0 && top == 0 && right == 0 && bottom == 0) {
+            return;
+        }
+
+        mView.setPadding(mView.getPaddingLeft() + left,
+                         mView.getPaddingTop() + top,
+                         mView.getPaddingRight() + right,
+                         mView.getPaddingBottom() + bottom);
+
+        // Minimum width and minimum height.
+        int minWidth = mView.getMinimumWidth();
+        if (minWidth > 0) {
+            mView.setMinimumWidth(minWidth + (left + right));
+        }
+        int minHeight = mView.getMinimumHeight();
+        if (minHeight > 0) {
+            mView.setMinimumHeight(minHeight + (top + bottom));
+        }
+
+        // Layout size (if using explicit dimensions) and margins.
+        if (params.width > 0) {
+            params.width += left + right;
+        }
+        if (params.height > 0) {
+            params.height += top + bottom;
+        }
+        if (params instanceof ViewGroup.MarginLayoutParams) {
+            ViewGroup.MarginLayoutParams marginLayoutParams = (ViewGroup.MarginLayoutParams) params;
+            marginLayoutParams.leftMargin -= left;
+            marginLayoutParams.topMargin -= top;
+            marginLayoutParams.rightMargin -= right;
+            marginLayoutParams.bottomMargin -= bottom;
         }
+        mView.setLayoutParams(params);
     }
 
     private CompatElevationDrawable getElevationDrawableWrapper() {
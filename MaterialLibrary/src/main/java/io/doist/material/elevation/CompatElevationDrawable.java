@@ -1,23 +1,20 @@
 package io.doist.material.elevation;
 
+import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
 import android.graphics.Paint;
 import android.graphics.PixelFormat;
 import android.graphics.Rect;
 import android.graphics.Shader;
 import android.graphics.drawable.Drawable;
-import android.os.Handler;
-import android.os.Looper;
-import android.util.DisplayMetrics;
-import android.util.TypedValue;
 import android.view.View;
 
 import java.lang.ref.WeakReference;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
 
 import io.doist.material.drawable.WrapperDrawable;
 
@@ -25,21 +22,29 @@ import io.doist.material.drawable.WrapperDrawable;
  * Wraps a {@link Drawable} and draws an elevation drop shadow around it.
  */
 class CompatElevationDrawable extends WrapperDrawable implements CompatElevationUpdateRunnable.ShadowUpdateListener {
-    // For calculating each shadow length.
-    private static final int LIGHT_HEIGHT_DIP = 800;
-    private static final int LIGHT_Y_OFFSET_DIP = 640;
-    private static final int LIGHT_X_OFFSET_DIP = 160;
-
     // For calculating each shadows alpha.
     private static final float AMBIENT_ALPHA = 0.09f;
     private static final float SIDE_ALPHA = 0.14f;
     private static final float MIN_BOTTOM_ALPHA = 0.18f; // Bottom shadow when at top.
     private static final float INC_BOTTOM_ALPHA = 0.05f; // Bottom shadow increment when at the bottom.
 
-    // Executor service for calculating the shadow in the background.
-    private static BlockingQueue<Runnable> sShadowExecutorQueue = new LinkedBlockingQueue<>();
-    private static ThreadPoolExecutor sShadowExecutor =
-            new ThreadPoolExecutor(0, 1, 2, TimeUnit.SECONDS, sShadowExecutorQueue);
+    // Placeholder edge textures (left, top, right, bottom), shared by all drawables.
+    private static final int PLACEHOLDER_TEXTURE_SIZE = 16;
+    private static Bitmap[] sPlaceholderTextures;
+
+    // Textures being prewarmed, see prewarm(). Main thread only.
+    private static final HashSet<CompatElevationTextureCache.Key> sPrewarmingKeys = new HashSet<>();
+    private static final CompatElevationTextureCache.Key sTmpPrewarmKey = new CompatElevationTextureCache.Key();
+    private static final Rect sTmpPrewarmBounds = new Rect();
+    private static final CompatElevationUpdateRunnable.ShadowUpdateListener sPrewarmListener =
+            new CompatElevationUpdateRunnable.ShadowUpdateListener() {
+                @Override
+                public void onShadowUpdate(CompatElevationUpdateRunnable update) {
+                    // Cached by the runnable, prewarming skips textures that don't fit.
+                    sPrewarmingKeys.remove(update.getTextureKey());
+                    update.recycle();
+                }
+            };
 
     private WeakReference<View> mViewRef;
     private float mElevation = 0f;
@@ -51,11 +56,7 @@ class CompatElevationDrawable extends WrapperDrawable implements CompatElevation
     private boolean mShowShadowBottom = true;
 
     // Source light / screen.
-    private float mLightHeight;
-    private float mLightOffsetX;
-    private float mLightOffsetY;
-    private int mScreenWidth;
-    private int mScreenHeight;
+    private CompatElevationEnvironment mEnvironment;
 
     // Edge paints.
     private Paint mShadowPaintLeft;
@@ -66,12 +67,66 @@ class CompatElevationDrawable extends WrapperDrawable implements CompatElevation
     // Corner paint.
     private Paint mCornerPaint;
 
+    // Placeholder paint, used until the shadow is setup.
+    private Paint mPlaceholderPaint;
+
     // Corner bitmaps.
     private Bitmap mShadowBitmapTopLeft;
     private Bitmap mShadowBitmapTopRight;
     private Bitmap mShadowBitmapBottomRight;
     private Bitmap mShadowBitmapBottomLeft;
 
+    // Single stretchable texture, when using CompatElevationDelegate.SHADOW_RENDER_MODE_TEXTURE.
+    private int mRenderMode = CompatElevationDelegate.SHADOW_RENDER_MODE_EDGES;
+    private Bitmap mShadowTexture;
+    private Paint mTexturePaint;
+    private CompatElevationTextureCache.Key mTmpTextureKey = new CompatElevationTextureCache.Key();
+    private float[] mTmpMeshVerts = new float[32];
+
+    // Arbitrary shadow shape, drawn as a single blurred mask instead of edges and corners.
+    private CompatElevationOutline mOutline;
+    private CompatElevationOutlineMask mOutlineMask;
+    private Paint mOutlinePaint;
+
+    // Cached texture of the current level, drawn in edges mode until the shadow is setup.
+    private Bitmap mFallbackTexture;
+
+    // Crossfade between the cached textures of two elevations, see crossfadeElevation(float, float).
+    private float mCrossfadeFromElevation;
+    private float mCrossfadeFraction = -1f;
+    private boolean mCrossfadeTexturesRequested;
+    private Bitmap mCrossfadeFromTexture;
+    private Bitmap mCrossfadeToTexture;
+    private Paint mCrossfadePaint;
+    // Incremented on each crossfade, to drop textures rendered for previous ones.
+    private int mCrossfadeGeneration;
+    private final CompatElevationUpdateRunnable.ShadowUpdateListener mCrossfadeFromListener =
+            new CompatElevationUpdateRunnable.ShadowUpdateListener() {
+                @Override
+                public void onShadowUpdate(CompatElevationUpdateRunnable update) {
+                    if (update.getGeneration() == mCrossfadeGeneration && mCrossfadeFraction >= 0f) {
+                        mCrossfadeFromTexture = update.mTexture;
+                        invalidateSelf();
+                    }
+                    update.recycle();
+                }
+            };
+    private final CompatElevationUpdateRunnable.ShadowUpdateListener mCrossfadeToListener =
+            new CompatElevationUpdateRunnable.ShadowUpdateListener() {
+                @Override
+                public void onShadowUpdate(CompatElevationUpdateRunnable update) {
+                    if (update.getGeneration() == mCrossfadeGeneration && mCrossfadeFraction >= 0f) {
+                        mCrossfadeToTexture = update.mTexture;
+                        invalidateSelf();
+                    }
+                    update.recycle();
+                }
+            };
+
+    // Corner bitmaps replaced since the last frame, and those that can be returned to the pool after this frame.
+    private final ArrayList<Bitmap> mRetiredBitmaps = new ArrayList<>(4);
+    private final ArrayList<Bitmap> mReleasableBitmaps = new ArrayList<>(4);
+
     // Shadow lengths in each direction.
     private int mShadowLengthLeft;
     private int mShadowLengthTop;
@@ -89,23 +144,38 @@ class CompatElevationDrawable extends WrapperDrawable implements CompatElevation
 
     // Avoid allocations.
     private int[] mScreenLocation = new int[2];
+    private Rect mScreenBounds = new Rect();
     private Rect mBounds = new Rect();
+    private Rect mTmpPlaceholderRect = new Rect();
     private int mLeft;
     private int mTop;
     private int mRight;
     private int mBottom;
 
     // Shadow setup or not.
-    private volatile boolean mIsShadowSetup;
-
-    // Handler for invalidating the drawable on the UI thread.
-    private Handler mHandler = new Handler(Looper.getMainLooper());
-    private Runnable mInvalidateRunnable = new Runnable() {
-        @Override
-        public void run() {
-            invalidateSelf();
-        }
-    };
+    private boolean mIsShadowSetup;
+
+    // Generation of the latest update, only its result is committed. Older ones are superseded.
+    private int mGeneration;
+    // Latest update running in the background, not yet committed.
+    private CompatElevationUpdateRunnable mPendingUpdate;
+    // Forces the next update to go through.
+    private boolean mForceUpdate;
+
+    // Shadow rendered into a bitmap, when enabled. Redrawn only after being invalidated or when the shadow lengths
+    // change. The wrapped drawable is drawn over it as usual.
+    private boolean mCacheEnabled;
+    private boolean mCacheValid;
+    private Bitmap mCacheBitmap;
+    private Canvas mCacheCanvas;
+    private Rect mCacheBounds = new Rect();
+    private int mCacheShadowLengthLeft;
+    private int mCacheShadowLengthTop;
+    private int mCacheShadowLengthRight;
+    private int mCacheShadowLengthBottom;
+
+    // Number of shadow regenerations, when CompatElevationMetrics is enabled.
+    private int mRegenerationCount;
 
     public CompatElevationDrawable(Drawable drawable, View view, float elevation, float cornerRadius,
                                    boolean showShadowLeft, boolean showShadowTop,
@@ -122,12 +192,7 @@ class CompatElevationDrawable extends WrapperDrawable implements CompatElevation
         mShowShadowRight = showShadowRight;
         mShowShadowBottom = showShadowBottom;
 
-        mLightHeight = dpToPx(LIGHT_HEIGHT_DIP);
-        mLightOffsetX = dpToPx(LIGHT_X_OFFSET_DIP);
-        mLightOffsetY = dpToPx(LIGHT_Y_OFFSET_DIP);
-        DisplayMetrics metrics = view.getResources().getDisplayMetrics();
-        mScreenWidth = metrics.widthPixels;
-        mScreenHeight = metrics.heightPixels;
+        mEnvironment = CompatElevationEnvironment.getInstance(view.getContext());
 
         mShadowPaintLeft = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.DITHER_FLAG);
         mShadowPaintLeft.setStyle(Paint.Style.FILL);
@@ -135,6 +200,11 @@ class CompatElevationDrawable extends WrapperDrawable implements CompatElevation
         mShadowPaintRight = new Paint(mShadowPaintLeft);
         mShadowPaintBottom = new Paint(mShadowPaintLeft);
         mCornerPaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.DITHER_FLAG);
+        mPlaceholderPaint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+        mTexturePaint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+        mCrossfadePaint = new Paint(mTexturePaint);
+        mOutlinePaint = new Paint(Paint.FILTER_BITMAP_FLAG | Paint.DITHER_FLAG);
+        mOutlinePaint.setColor(Color.BLACK);
 
         calculatePadding();
 
@@ -149,12 +219,73 @@ class CompatElevationDrawable extends WrapperDrawable implements CompatElevation
     @Override
     public void setAlpha(int alpha) {
         super.setAlpha(alpha);
+        invalidateCache();
 
         mShadowPaintLeft.setAlpha(alpha);
         mShadowPaintTop.setAlpha(alpha);
         mShadowPaintRight.setAlpha(alpha);
         mShadowPaintBottom.setAlpha(alpha);
         mCornerPaint.setAlpha(alpha);
+        mCrossfadePaint.setAlpha(alpha);
+        mPlaceholderPaint.setAlpha(alpha);
+        mTexturePaint.setAlpha(alpha);
+    }
+
+    @Override
+    public void invalidateSelf() {
+        // Shadow commits go through here.
+        invalidateCache();
+        super.invalidateSelf();
+    }
+
+    @Override
+    public void invalidateDrawable(Drawable who) {
+        // The wrapped drawable isn't cached, its invalidations leave the shadow as is.
+        super.invalidateSelf();
+    }
+
+    /**
+     * @see CompatElevationDelegate#setShadowCacheEnabled(boolean)
+     */
+    public void setCacheEnabled(boolean cacheEnabled) {
+        if (mCacheEnabled != cacheEnabled) {
+            mCacheEnabled = cacheEnabled;
+            if (!cacheEnabled) {
+                mCacheBitmap = null;
+                mCacheCanvas = null;
+            }
+            invalidateSelf();
+        }
+    }
+
+    private void invalidateCache() {
+        mCacheValid = false;
+    }
+
+    @Override
+    public boolean setVisible(boolean visible, boolean restart) {
+        boolean wasVisible = isVisible();
+        boolean changed = super.setVisible(visible, restart);
+        if (wasVisible != isVisible()) {
+            if (isVisible()) {
+                // Catch up with a single regeneration on the next draw.
+                mForceUpdate = true;
+                invalidateSelf();
+            } else {
+                suspendUpdates();
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Cancels the pending update, if any, and drops the results of those in progress. The shadow is regenerated on
+     * the next update.
+     */
+    public void suspendUpdates() {
+        cancelPendingUpdate();
+        mGeneration++;
+        mForceUpdate = true;
     }
 
     public void setShownShadows(boolean left, boolean top, boolean right, boolean bottom) {
@@ -166,6 +297,10 @@ class CompatElevationDrawable extends WrapperDrawable implements CompatElevation
             mShowShadowBottom = bottom;
 
             // Clear bitmap references, as the necessary ones will be recreated in update().
+            retireBitmap(mShadowBitmapTopLeft);
+            retireBitmap(mShadowBitmapTopRight);
+            retireBitmap(mShadowBitmapBottomRight);
+            retireBitmap(mShadowBitmapBottomLeft);
             mShadowBitmapTopLeft = null;
             mShadowBitmapTopRight = null;
             mShadowBitmapBottomRight = null;
@@ -177,6 +312,48 @@ class CompatElevationDrawable extends WrapperDrawable implements CompatElevation
         }
     }
 
+    /**
+     * @see CompatElevationDelegate#setShadowRenderMode(int)
+     */
+    public void setRenderMode(int renderMode) {
+        if (mRenderMode != renderMode) {
+            mRenderMode = renderMode;
+
+            // Drop the current shadow, it will be regenerated for the new mode.
+            retireBitmap(mShadowBitmapTopLeft);
+            retireBitmap(mShadowBitmapTopRight);
+            retireBitmap(mShadowBitmapBottomRight);
+            retireBitmap(mShadowBitmapBottomLeft);
+            mShadowBitmapTopLeft = null;
+            mShadowBitmapTopRight = null;
+            mShadowBitmapBottomRight = null;
+            mShadowBitmapBottomLeft = null;
+            mShadowTexture = null;
+            mFallbackTexture = null;
+            mIsShadowSetup = false;
+
+            // Drop any update in progress, as it's for the old mode, and regenerate on the next draw.
+            cancelPendingUpdate();
+            mGeneration++;
+            mForceUpdate = true;
+            invalidateSelf();
+        }
+    }
+
+    /**
+     * @see CompatElevationDelegate#setShadowOutline(CompatElevationOutline)
+     */
+    public void setOutline(CompatElevationOutline outline) {
+        if (mOutline != outline) {
+            mOutline = outline;
+            mOutlineMask = null;
+
+            // Edges and corners are regenerated if going back to them.
+            mForceUpdate = true;
+            invalidateSelf();
+        }
+    }
+
     /**
      * @see CompatElevationDelegate#setElevation(float)
      */
@@ -190,6 +367,21 @@ class CompatElevationDrawable extends WrapperDrawable implements CompatElevation
         }
     }
 
+    /**
+     * Sets the elevation like {@link #setElevation(float)}, but regenerates the shadow in the background on the next
+     * draw instead of right away, so that animating the elevation doesn't render on the calling thread.
+     */
+    public void setElevationDeferred(float elevation) {
+        if (mElevation != elevation) {
+            mElevation = elevation;
+
+            calculatePadding();
+
+            mForceUpdate = true;
+            invalidateSelf();
+        }
+    }
+
     /**
      * @see CompatElevationDelegate#setCornerRadius(float)
      */
@@ -201,6 +393,93 @@ class CompatElevationDrawable extends WrapperDrawable implements CompatElevation
         }
     }
 
+    /**
+     * Switches from {@code fromElevation} to {@code toElevation} by crossfading their shadows, as set through
+     * {@link #setCrossfadeFraction(float)}. Both shadows are rendered once in the background, as textures shared
+     * through {@link CompatElevationTextureCache}, and nothing is regenerated until {@link #endCrossfade()}. Until
+     * they land, the current texture or the placeholder shadow is drawn in their place.
+     *
+     * Padding fits the highest of both elevations until {@link #endCrossfade()}.
+     */
+    public void crossfadeElevation(float fromElevation, float toElevation) {
+        // The current shadow is drawn until the one of the starting elevation is rendered.
+        Bitmap currentTexture = mIsShadowSetup ? mShadowTexture : mFallbackTexture;
+
+        mElevation = toElevation;
+        mCrossfadeFromElevation = fromElevation;
+        mCrossfadeFraction = 0f;
+        mCrossfadeTexturesRequested = false;
+        mCrossfadeFromTexture = currentTexture;
+        mCrossfadeToTexture = null;
+        mCrossfadeGeneration++;
+        if (toElevation > fromElevation) {
+            calculatePadding();
+        }
+
+        // Results of updates in progress are outdated.
+        cancelPendingUpdate();
+        mGeneration++;
+
+        // Render both levels now if possible, otherwise on the first draw.
+        prepareCrossfadeTextures();
+
+        invalidateSelf();
+    }
+
+    /**
+     * Sets the progress of the crossfade started in {@link #crossfadeElevation(float, float)}, from 0 to 1.
+     */
+    public void setCrossfadeFraction(float fraction) {
+        if (mCrossfadeFraction >= 0f && mCrossfadeFraction != fraction) {
+            mCrossfadeFraction = Math.max(0f, Math.min(fraction, 1f));
+            invalidateSelf();
+        }
+    }
+
+    /**
+     * Ends the crossfade started in {@link #crossfadeElevation(float, float)}. The texture of the final elevation
+     * keeps being drawn until its regular shadow is committed, and padding shrinks to fit it.
+     */
+    public void endCrossfade() {
+        if (mCrossfadeFraction >= 0f) {
+            mCrossfadeFraction = -1f;
+            mCrossfadeGeneration++;
+            mFallbackTexture = mCrossfadeToTexture;
+            mCrossfadeFromTexture = null;
+            mCrossfadeToTexture = null;
+            calculatePadding();
+
+            retireBitmap(mShadowBitmapTopLeft);
+            retireBitmap(mShadowBitmapTopRight);
+            retireBitmap(mShadowBitmapBottomRight);
+            retireBitmap(mShadowBitmapBottomLeft);
+            mShadowBitmapTopLeft = null;
+            mShadowBitmapTopRight = null;
+            mShadowBitmapBottomRight = null;
+            mShadowBitmapBottomLeft = null;
+            mShadowTexture = null;
+            mIsShadowSetup = false;
+            mForceUpdate = true;
+
+            invalidateSelf();
+        }
+    }
+
+    /**
+     * Takes the textures of both crossfaded elevations from {@link CompatElevationTextureCache}, or requests those
+     * missing from {@link CompatElevationShadowEngine}.
+     */
+    private void prepareCrossfadeTextures() {
+        if (!mCrossfadeTexturesRequested && !mBounds.isEmpty() && mViewRef.get() != null) {
+            Bitmap fromTexture = requestLevelTexture(mCrossfadeFromElevation, mCrossfadeFromListener);
+            if (fromTexture != null) {
+                mCrossfadeFromTexture = fromTexture;
+            }
+            mCrossfadeToTexture = requestLevelTexture(mElevation, mCrossfadeToListener);
+            mCrossfadeTexturesRequested = true;
+        }
+    }
+
     // Padding is managed by ElevationDelegate, as this would clear the original padding when the background is set.
     @Override
     public boolean getPadding(Rect padding) {
@@ -210,8 +489,8 @@ class CompatElevationDrawable extends WrapperDrawable implements CompatElevation
     private void calculatePadding() {
         mShadowPaddingLeft = getShadowLengthLeft(0);
         mShadowPaddingTop = getShadowLengthTop();
-        mShadowPaddingRight = getShadowLengthRight(mScreenWidth);
-        mShadowPaddingBottom = getShadowLengthBottom(mScreenHeight);
+        mShadowPaddingRight = getShadowLengthRight(mEnvironment.getScreenWidth());
+        mShadowPaddingBottom = getShadowLengthBottom(mEnvironment.getScreenHeight());
     }
 
     public int getPaddingLeft() {
@@ -243,31 +522,128 @@ class CompatElevationDrawable extends WrapperDrawable implements CompatElevation
                     bounds.top + mWrappedPadding.top,
                     bounds.right - mWrappedPadding.right,
                     bounds.bottom - mWrappedPadding.bottom);
+
+        invalidateCache();
     }
 
     @Override
     public void draw(Canvas canvas) {
-        drawShadow(canvas);
+        // Bitmaps retired before this frame are no longer drawn, so they can be pooled once it's done.
+        synchronized (mRetiredBitmaps) {
+            mReleasableBitmaps.addAll(mRetiredBitmaps);
+            mRetiredBitmaps.clear();
+        }
+
+        if (!mCacheEnabled || mCrossfadeFraction >= 0f || !drawCached(canvas)) {
+            drawShadow(canvas);
+
+            super.draw(canvas);
+        }
+
+        for (int i = mReleasableBitmaps.size() - 1; i >= 0; i--) {
+            CompatElevationBitmapPool.release(mReleasableBitmaps.get(i));
+        }
+        mReleasableBitmaps.clear();
+    }
+
+    /**
+     * Draws the shadow from the cache bitmap, rendering it into it first if it was invalidated or the shadow lengths
+     * changed as the drawable moved relative to the light, then the wrapped drawable.
+     *
+     * @return true if drawn, false if the cache can't be used.
+     */
+    private boolean drawCached(Canvas canvas) {
+        View view = mViewRef.get();
+        Rect bounds = getBounds();
+        if (view == null || bounds.isEmpty()) {
+            return false;
+        }
 
+        // Bring the shadow up-to-date, which invalidates the cache if it changes.
+        update(false, true);
+
+        // Outline shadows are not regenerated when moving, but their offset follows the shadow lengths.
+        Rect screenBounds = getScreenBounds(view);
+        int shadowLengthLeft = getShadowLengthLeft(screenBounds.left);
+        int shadowLengthTop = getShadowLengthTop();
+        int shadowLengthRight = getShadowLengthRight(screenBounds.right);
+        int shadowLengthBottom = getShadowLengthBottom(screenBounds.bottom);
+        if (shadowLengthLeft != mCacheShadowLengthLeft || shadowLengthTop != mCacheShadowLengthTop
+                || shadowLengthRight != mCacheShadowLengthRight || shadowLengthBottom != mCacheShadowLengthBottom) {
+            mCacheShadowLengthLeft = shadowLengthLeft;
+            mCacheShadowLengthTop = shadowLengthTop;
+            mCacheShadowLengthRight = shadowLengthRight;
+            mCacheShadowLengthBottom = shadowLengthBottom;
+            invalidateCache();
+        }
+
+        // The shadow is drawn around the bounds, over the padding.
+        mCacheBounds.set(bounds.left - getPaddingLeft(), bounds.top - getPaddingTop(),
+                         bounds.right + getPaddingRight(), bounds.bottom + getPaddingBottom());
+        int width = mCacheBounds.width();
+        int height = mCacheBounds.height();
+        if (mCacheBitmap == null || mCacheBitmap.getWidth() != width || mCacheBitmap.getHeight() != height) {
+            mCacheBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            CompatElevationMetrics.recordBitmapAllocation(mCacheBitmap.getRowBytes() * height);
+            mCacheCanvas = new Canvas(mCacheBitmap);
+            mCacheValid = false;
+        }
+
+        if (!mCacheValid) {
+            mCacheBitmap.eraseColor(Color.TRANSPARENT);
+            int count = mCacheCanvas.save();
+            mCacheCanvas.translate(-mCacheBounds.left, -mCacheBounds.top);
+            drawShadow(mCacheCanvas);
+            mCacheCanvas.restoreToCount(count);
+            mCacheValid = true;
+        }
+
+        canvas.drawBitmap(mCacheBitmap, mCacheBounds.left, mCacheBounds.top, null);
         super.draw(canvas);
+        return true;
     }
 
     private void drawShadow(Canvas canvas) {
+        // Crossfade between cached levels, without regenerating anything.
+        if (mCrossfadeFraction >= 0f) {
+            drawCrossfadeShadow(canvas);
+            return;
+        }
+
         // Bail out immediately if there's no elevation.
         if (mElevation == 0f) {
             return;
         }
 
-        // Ensure shadow is up-to-date (in the background, if previously setup).
-        update(false, mIsShadowSetup);
+        if (mOutline != null) {
+            drawOutlineShadow(canvas);
+            return;
+        }
+
+        // Ensure shadow is up-to-date, in the background.
+        update(false, true);
+
+        // Draw a cached texture or a cheap placeholder until the first update is committed.
+        if (!mIsShadowSetup) {
+            if (mFallbackTexture != null) {
+                drawShadowTexture(canvas, mFallbackTexture, mTexturePaint);
+            } else {
+                drawPlaceholderShadow(canvas);
+            }
+            return;
+        }
+
+        if (mRenderMode == CompatElevationDelegate.SHADOW_RENDER_MODE_TEXTURE) {
+            drawShadowTexture(canvas, mShadowTexture, mTexturePaint);
+            return;
+        }
 
         int width = mBounds.width();
         int height = mBounds.height();
 
         // Translate the canvas to the area that will be drawn.
         int count = canvas.save();
-        canvas.translate(getPaddingLeft() + mWrappedPadding.left - mShadowLengthLeft,
-                         getPaddingTop() + mWrappedPadding.top - mShadowLengthTop);
+        canvas.translate(mBounds.left - mShadowLengthLeft, mBounds.top - mShadowLengthTop);
 
         // Draw edges.
         if (mShowShadowLeft) {
@@ -329,6 +705,205 @@ class CompatElevationDrawable extends WrapperDrawable implements CompatElevation
         canvas.restoreToCount(count);
     }
 
+    /**
+     * Draws the whole shadow in a single call, stretching the texture's middle column and row along the drawable.
+     *
+     * @see CompatElevationUpdateRunnable for the texture layout.
+     */
+    private void drawShadowTexture(Canvas canvas, Bitmap texture, Paint paint) {
+        int columnSize = texture.getWidth() / 3;
+        int rowSize = texture.getHeight() / 3;
+        int cornerRadius = (int) mCornerRadius;
+
+        // Edges of the stretched area, ie. the drawable without the corners.
+        float left = mBounds.left + cornerRadius;
+        float top = mBounds.top + cornerRadius;
+        float right = left - 2 * cornerRadius + mBounds.width();
+        float bottom = top - 2 * cornerRadius + mBounds.height();
+
+        float[] verts = mTmpMeshVerts;
+        for (int row = 0; row < 4; row++) {
+            float y = row == 0 ? top - rowSize : row == 1 ? top : row == 2 ? bottom : bottom + rowSize;
+            for (int column = 0; column < 4; column++) {
+                float x = column == 0 ? left - columnSize : column == 1 ? left : column == 2 ? right
+                                                                                          : right + columnSize;
+                int i = (row * 4 + column) * 2;
+                verts[i] = x;
+                verts[i + 1] = y;
+            }
+        }
+
+        canvas.drawBitmapMesh(texture, 3, 3, verts, 0, null, 0, paint);
+    }
+
+    /**
+     * Draws the textures of both crossfaded elevations, each with its share of the alpha.
+     */
+    private void drawCrossfadeShadow(Canvas canvas) {
+        prepareCrossfadeTextures();
+
+        int alpha = mTexturePaint.getAlpha();
+        if (mCrossfadeFromElevation > 0) {
+            drawCrossfadeLevel(canvas, mCrossfadeFromTexture, Math.round(alpha * (1f - mCrossfadeFraction)));
+        }
+        if (mElevation > 0) {
+            drawCrossfadeLevel(canvas, mCrossfadeToTexture, Math.round(alpha * mCrossfadeFraction));
+        }
+    }
+
+    /**
+     * Draws the texture of a crossfaded elevation with {@code alpha}, or the placeholder shadow if it's not rendered
+     * yet.
+     */
+    private void drawCrossfadeLevel(Canvas canvas, Bitmap texture, int alpha) {
+        if (texture != null) {
+            mCrossfadePaint.setAlpha(alpha);
+            drawShadowTexture(canvas, texture, mCrossfadePaint);
+        } else {
+            int placeholderAlpha = mPlaceholderPaint.getAlpha();
+            mPlaceholderPaint.setAlpha(alpha);
+            drawPlaceholderShadow(canvas);
+            mPlaceholderPaint.setAlpha(placeholderAlpha);
+        }
+    }
+
+    /**
+     * Draws the blurred mask of the outline, offset away from the light and as dark as the bottom shadow.
+     */
+    private void drawOutlineShadow(Canvas canvas) {
+        View view = mViewRef.get();
+        if (view == null || mBounds.isEmpty()) {
+            return;
+        }
+
+        Rect screenBounds = getScreenBounds(view);
+        int shadowLengthLeft = getShadowLengthLeft(screenBounds.left);
+        int shadowLengthRight = getShadowLengthRight(screenBounds.right);
+        int shadowLengthBottom = getShadowLengthBottom(screenBounds.bottom);
+
+        // Blurring by the ambient length and offsetting by half the difference keeps the shadow within the padding.
+        CompatElevationOutlineMask mask = obtainOutlineMask();
+        if (mask == null) {
+            drawPlaceholderShadow(canvas);
+            return;
+        }
+        float offsetX = (shadowLengthRight - shadowLengthLeft) / 2f;
+        float offsetY = (shadowLengthBottom - getShadowLengthTop()) / 2f;
+
+        float shadowAlpha = getShadowAlphaBottom(mEnvironment, mElevation, shadowLengthBottom);
+        mOutlinePaint.setAlpha(Math.round(mTexturePaint.getAlpha() * shadowAlpha));
+        canvas.drawBitmap(mask.mBitmap,
+                          mBounds.left + mask.mOffsetX + offsetX,
+                          mBounds.top + mask.mOffsetY + offsetY,
+                          mOutlinePaint);
+    }
+
+    /**
+     * Returns the mask of the outline for the current size and elevation. If it's not rendered yet, requests it from
+     * {@link CompatElevationShadowEngine} and returns null.
+     */
+    private CompatElevationOutlineMask obtainOutlineMask() {
+        int width = mBounds.width();
+        int height = mBounds.height();
+        int blurRadius = getShadowLengthAmbient();
+
+        CompatElevationOutlineMask mask = mOutlineMask;
+        if (mask == null || !mask.matches(mOutline, width, height, blurRadius)) {
+            mask = CompatElevationOutlineMask.get(mOutline, width, height, blurRadius);
+            if (mask == null) {
+                // Latest wins, as with edges, unless the right mask is already being rendered.
+                CompatElevationUpdateRunnable pendingUpdate = mPendingUpdate;
+                if (isVisible() && (pendingUpdate == null
+                        || !pendingUpdate.isOutlineMask(mOutline, width, height, blurRadius))) {
+                    cancelPendingUpdate();
+                    mPendingUpdate = CompatElevationUpdateRunnable.obtainOutlineMask(
+                            ++mGeneration, mOutline, width, height, blurRadius, this);
+                    recordRegeneration();
+                    CompatElevationShadowEngine.submit(mPendingUpdate);
+                }
+                return null;
+            }
+            mOutlineMask = mask;
+        }
+        return mask;
+    }
+
+    /**
+     * Draws flat ambient edges from the shared placeholder textures. No corners, no directional light.
+     */
+    private void drawPlaceholderShadow(Canvas canvas) {
+        Bitmap[] textures = getPlaceholderTextures();
+        int width = mBounds.width();
+        int height = mBounds.height();
+        int length = getShadowLengthAmbient();
+        int cornerRadius = (int) mCornerRadius;
+
+        int count = canvas.save();
+        canvas.translate(mBounds.left, mBounds.top);
+
+        if (mShowShadowLeft) {
+            mTmpPlaceholderRect.set(-length, cornerRadius, 0, height - cornerRadius);
+            canvas.drawBitmap(textures[0], null, mTmpPlaceholderRect, mPlaceholderPaint);
+        }
+        if (mShowShadowTop) {
+            mTmpPlaceholderRect.set(cornerRadius, -length, width - cornerRadius, 0);
+            canvas.drawBitmap(textures[1], null, mTmpPlaceholderRect, mPlaceholderPaint);
+        }
+        if (mShowShadowRight) {
+            mTmpPlaceholderRect.set(width, cornerRadius, width + length, height - cornerRadius);
+            canvas.drawBitmap(textures[2], null, mTmpPlaceholderRect, mPlaceholderPaint);
+        }
+        if (mShowShadowBottom) {
+            mTmpPlaceholderRect.set(cornerRadius, height, width - cornerRadius, height + length);
+            canvas.drawBitmap(textures[3], null, mTmpPlaceholderRect, mPlaceholderPaint);
+        }
+
+        canvas.restoreToCount(count);
+    }
+
+    /**
+     * Returns the shared placeholder edge textures, creating them if needed. Each is an alpha ramp from the ambient
+     * shadow alpha, next to the drawable, to transparent.
+     */
+    private static Bitmap[] getPlaceholderTextures() {
+        if (sPlaceholderTextures == null) {
+            int size = PLACEHOLDER_TEXTURE_SIZE;
+            int color = Color.argb((int) (255 * AMBIENT_ALPHA), 0, 0, 0);
+            Bitmap[] textures = new Bitmap[4];
+            textures[0] = createPlaceholderTexture(size, 1, new LinearGradient(
+                    0, 0, size, 0, Color.TRANSPARENT, color, Shader.TileMode.CLAMP));
+            textures[1] = createPlaceholderTexture(1, size, new LinearGradient(
+                    0, 0, 0, size, Color.TRANSPARENT, color, Shader.TileMode.CLAMP));
+            textures[2] = createPlaceholderTexture(size, 1, new LinearGradient(
+                    0, 0, size, 0, color, Color.TRANSPARENT, Shader.TileMode.CLAMP));
+            textures[3] = createPlaceholderTexture(1, size, new LinearGradient(
+                    0, 0, 0, size, color, Color.TRANSPARENT, Shader.TileMode.CLAMP));
+            sPlaceholderTextures = textures;
+        }
+        return sPlaceholderTextures;
+    }
+
+    private static Bitmap createPlaceholderTexture(int width, int height, Shader shader) {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ALPHA_8);
+        Paint paint = new Paint();
+        paint.setShader(shader);
+        new Canvas(bitmap).drawPaint(paint);
+        return bitmap;
+    }
+
+    /**
+     * Starts generating the shadow in the background, so that it's likely ready by the time it's first drawn.
+     */
+    public void prepareShadow() {
+        if (mOutline != null) {
+            if (mElevation > 0 && !mBounds.isEmpty()) {
+                obtainOutlineMask();
+            }
+        } else if (!mIsShadowSetup) {
+            update(false, true);
+        }
+    }
+
     /**
      * Updates the necessary edge paints and corner bitmaps for the current state.
      *
@@ -337,12 +912,16 @@ class CompatElevationDrawable extends WrapperDrawable implements CompatElevation
      */
     private void update(boolean force, boolean async) {
         View view = mViewRef.get();
-        if (view != null && mElevation > 0) {
-            view.getLocationOnScreen(mScreenLocation);
-            int left = mScreenLocation[0] + getPaddingLeft();
-            int top = mScreenLocation[1] + getPaddingTop();
-            int right = left + mBounds.width();
-            int bottom = top + mBounds.height();
+        // Updates are suspended while invisible, see setVisible(boolean, boolean). Outlines don't need them.
+        if (view != null && mElevation > 0 && isVisible() && mOutline == null) {
+            force |= mForceUpdate;
+            mForceUpdate = false;
+
+            Rect screenBounds = getScreenBounds(view);
+            int left = screenBounds.left;
+            int top = screenBounds.top;
+            int right = screenBounds.right;
+            int bottom = screenBounds.bottom;
 
             if (force || left != mLeft || top != mTop || right != mRight || bottom != mBottom) {
                 // Check if there were changes in the drawable's dimensions.
@@ -359,6 +938,27 @@ class CompatElevationDrawable extends WrapperDrawable implements CompatElevation
                 int shadowLengthRight = getShadowLengthRight(right);
                 int shadowLengthBottom = getShadowLengthBottom(bottom);
 
+                float shadowAlphaLeft = shadowLengthLeft > shadowLengthRight ? SIDE_ALPHA : AMBIENT_ALPHA;
+                float shadowAlphaTop = AMBIENT_ALPHA;
+                float shadowAlphaRight = shadowLengthRight > shadowLengthLeft ? SIDE_ALPHA : AMBIENT_ALPHA;
+                float shadowAlphaBottom = getShadowAlphaBottom(mEnvironment, mElevation, shadowLengthBottom);
+
+                if (mRenderMode == CompatElevationDelegate.SHADOW_RENDER_MODE_TEXTURE) {
+                    updateTexture(force, async, shadowLengthLeft, shadowLengthTop, shadowLengthRight,
+                                  shadowLengthBottom, shadowAlphaLeft, shadowAlphaTop, shadowAlphaRight,
+                                  shadowAlphaBottom);
+                    return;
+                }
+
+                // Until the first commit, draw the matching texture if another drawable cached it.
+                if (!mIsShadowSetup && mFallbackTexture == null) {
+                    mTmpTextureKey.set((int) mCornerRadius,
+                                       shadowLengthLeft, shadowLengthTop, shadowLengthRight, shadowLengthBottom,
+                                       shadowAlphaLeft, shadowAlphaTop, shadowAlphaRight, shadowAlphaBottom,
+                                       mShowShadowLeft, mShowShadowTop, mShowShadowRight, mShowShadowBottom);
+                    mFallbackTexture = CompatElevationTextureCache.get(mTmpTextureKey);
+                }
+
                 boolean leftDirty = mShowShadowLeft && (force || shadowLengthLeft != mShadowLengthLeft || widthChanged);
                 boolean topDirty = mShowShadowTop && (force || shadowLengthTop != mShadowLengthTop || heightChanged);
                 boolean rightDirty =
@@ -366,21 +966,29 @@ class CompatElevationDrawable extends WrapperDrawable implements CompatElevation
                 boolean bottomDirty =
                         mShowShadowBottom && (force || shadowLengthBottom != mShadowLengthBottom || heightChanged);
 
+                // The pending update will be superseded, so its dirty sides must be carried over.
+                CompatElevationUpdateRunnable pendingUpdate = mPendingUpdate;
+                if (pendingUpdate != null) {
+                    leftDirty |= mShowShadowLeft && pendingUpdate.isDirtyLeft();
+                    topDirty |= mShowShadowTop && pendingUpdate.isDirtyTop();
+                    rightDirty |= mShowShadowRight && pendingUpdate.isDirtyRight();
+                    bottomDirty |= mShowShadowBottom && pendingUpdate.isDirtyBottom();
+                }
+
                 if (leftDirty || topDirty || rightDirty || bottomDirty) {
-                    float shadowAlphaLeft = shadowLengthLeft > shadowLengthRight ? SIDE_ALPHA : AMBIENT_ALPHA;
-                    float shadowAlphaTop = AMBIENT_ALPHA;
-                    float shadowAlphaRight = shadowLengthRight > shadowLengthLeft ? SIDE_ALPHA : AMBIENT_ALPHA;
-                    float shadowAlphaBottom =
-                            MIN_BOTTOM_ALPHA + INC_BOTTOM_ALPHA * shadowLengthBottom / getPaddingBottom();
+                    // Latest wins: drop the pending update if it didn't start yet, otherwise ignore its result.
+                    cancelPendingUpdate();
 
                     CompatElevationUpdateRunnable runnable =
-                            new CompatElevationUpdateRunnable(
-                                    mLeft, mTop, mRight, mBottom, mCornerRadius,
+                            CompatElevationUpdateRunnable.obtain(
+                                    ++mGeneration, mLeft, mTop, mRight, mBottom, mCornerRadius,
                                     shadowLengthLeft, shadowLengthTop, shadowLengthRight, shadowLengthBottom,
                                     shadowAlphaLeft, shadowAlphaTop, shadowAlphaRight, shadowAlphaBottom,
-                                    leftDirty, topDirty, rightDirty, bottomDirty, this);
+                                    leftDirty, topDirty, rightDirty, bottomDirty, null, this);
+                    recordRegeneration();
                     if (async) {
-                        sShadowExecutor.execute(runnable);
+                        mPendingUpdate = runnable;
+                        CompatElevationShadowEngine.submit(runnable);
                     } else {
                         runnable.run();
                     }
@@ -390,110 +998,344 @@ class CompatElevationDrawable extends WrapperDrawable implements CompatElevation
         }
     }
 
+    /**
+     * Updates the single shadow texture. Textures only depend on the shadow lengths, not on the drawable size, and are
+     * shared through {@link CompatElevationTextureCache}.
+     */
+    private void updateTexture(boolean force, boolean async,
+                               int shadowLengthLeft, int shadowLengthTop,
+                               int shadowLengthRight, int shadowLengthBottom,
+                               float shadowAlphaLeft, float shadowAlphaTop,
+                               float shadowAlphaRight, float shadowAlphaBottom) {
+        CompatElevationUpdateRunnable pendingUpdate = mPendingUpdate;
+        if (!force) {
+            boolean upToDate;
+            if (pendingUpdate != null) {
+                upToDate = shadowLengthLeft == pendingUpdate.getShadowLengthLeft()
+                        && shadowLengthTop == pendingUpdate.getShadowLengthTop()
+                        && shadowLengthRight == pendingUpdate.getShadowLengthRight()
+                        && shadowLengthBottom == pendingUpdate.getShadowLengthBottom();
+            } else {
+                upToDate = mShadowTexture != null
+                        && shadowLengthLeft == mShadowLengthLeft
+                        && shadowLengthTop == mShadowLengthTop
+                        && shadowLengthRight == mShadowLengthRight
+                        && shadowLengthBottom == mShadowLengthBottom;
+            }
+            if (upToDate) {
+                return;
+            }
+        }
+
+        // Latest wins, as with edges.
+        cancelPendingUpdate();
+        mGeneration++;
+
+        int cornerRadius = (int) mCornerRadius;
+        CompatElevationTextureCache.Key key = mTmpTextureKey;
+        key.set(cornerRadius, shadowLengthLeft, shadowLengthTop, shadowLengthRight, shadowLengthBottom,
+                shadowAlphaLeft, shadowAlphaTop, shadowAlphaRight, shadowAlphaBottom,
+                mShowShadowLeft, mShowShadowTop, mShowShadowRight, mShowShadowBottom);
+        Bitmap texture = CompatElevationTextureCache.get(key);
+        if (texture != null) {
+            commitTexture(texture, shadowLengthLeft, shadowLengthTop, shadowLengthRight, shadowLengthBottom);
+            return;
+        }
+
+        CompatElevationUpdateRunnable runnable = createTextureRunnable(mGeneration, key.copy(), this);
+        recordRegeneration();
+        if (async) {
+            mPendingUpdate = runnable;
+            CompatElevationShadowEngine.submit(runnable);
+        } else {
+            runnable.run();
+        }
+    }
+
+    /**
+     * Creates a runnable that renders the texture identified by {@code key}, around a virtual drawable whose middle
+     * column and row are as large as the corner ones.
+     */
+    private static CompatElevationUpdateRunnable createTextureRunnable(
+            int generation, CompatElevationTextureCache.Key key,
+            CompatElevationUpdateRunnable.ShadowUpdateListener listener) {
+        int cornerRadius = key.cornerRadius;
+        int columnSize = Math.max(key.shadowLengthLeft, key.shadowLengthRight) + cornerRadius;
+        int rowSize = Math.max(key.shadowLengthTop, key.shadowLengthBottom) + cornerRadius;
+        return CompatElevationUpdateRunnable.obtain(
+                generation, 0, 0, 2 * cornerRadius + columnSize, 2 * cornerRadius + rowSize, cornerRadius,
+                key.shadowLengthLeft, key.shadowLengthTop, key.shadowLengthRight, key.shadowLengthBottom,
+                key.shadowAlphaLeft, key.shadowAlphaTop, key.shadowAlphaRight, key.shadowAlphaBottom,
+                key.showShadowLeft, key.showShadowTop, key.showShadowRight, key.showShadowBottom, key, listener);
+    }
+
+    /**
+     * Returns the shadow texture for {@code elevation} at the current position if it's cached in
+     * {@link CompatElevationTextureCache}. Otherwise, renders it in the background for {@code listener}, tagged with
+     * the current crossfade generation, and returns null.
+     */
+    private Bitmap requestLevelTexture(float elevation,
+                                       CompatElevationUpdateRunnable.ShadowUpdateListener listener) {
+        View view = mViewRef.get();
+        if (view == null || elevation <= 0 || mBounds.isEmpty()) {
+            return null;
+        }
+
+        CompatElevationTextureCache.Key key = mTmpTextureKey;
+        setTextureKey(key, mEnvironment, elevation, mCornerRadius,
+                      mShowShadowLeft, mShowShadowTop, mShowShadowRight, mShowShadowBottom, getScreenBounds(view));
+        Bitmap texture = CompatElevationTextureCache.get(key);
+        if (texture == null) {
+            recordRegeneration();
+            CompatElevationShadowEngine.submit(createTextureRunnable(mCrossfadeGeneration, key.copy(), listener));
+        }
+        return texture;
+    }
+
+    /**
+     * Sets {@code key} to the texture of a drawable with the given parameters and on-screen bounds, excluding the
+     * shadow and wrapped drawable padding.
+     */
+    private static void setTextureKey(CompatElevationTextureCache.Key key, CompatElevationEnvironment environment,
+                                      float elevation, float cornerRadius,
+                                      boolean showShadowLeft, boolean showShadowTop,
+                                      boolean showShadowRight, boolean showShadowBottom, Rect screenBounds) {
+        int shadowLengthLeft = environment.getShadowLengthLeft(elevation, screenBounds.left);
+        int shadowLengthTop = environment.getShadowLengthTop(elevation);
+        int shadowLengthRight = environment.getShadowLengthRight(elevation, screenBounds.right);
+        int shadowLengthBottom = environment.getShadowLengthBottom(elevation, screenBounds.bottom);
+
+        key.set((int) cornerRadius, shadowLengthLeft, shadowLengthTop, shadowLengthRight, shadowLengthBottom,
+                shadowLengthLeft > shadowLengthRight ? SIDE_ALPHA : AMBIENT_ALPHA,
+                AMBIENT_ALPHA,
+                shadowLengthRight > shadowLengthLeft ? SIDE_ALPHA : AMBIENT_ALPHA,
+                getShadowAlphaBottom(environment, elevation, shadowLengthBottom),
+                showShadowLeft, showShadowTop, showShadowRight, showShadowBottom);
+    }
+
+    /**
+     * Renders, in the background, the shadow texture of a drawable with the given parameters, once set on a view
+     * with the given on-screen bounds and whose original background has {@code wrappedPadding}. Does nothing if the
+     * texture is already cached or being rendered.
+     *
+     * @see CompatElevationDelegate#prewarmShadow(int, int, int, int)
+     */
+    public static void prewarm(Context context, float elevation, float cornerRadius,
+                               boolean showShadowLeft, boolean showShadowTop,
+                               boolean showShadowRight, boolean showShadowBottom,
+                               int left, int top, int right, int bottom, Rect wrappedPadding) {
+        if (elevation <= 0) {
+            return;
+        }
+
+        // Same bounds as getScreenBounds() would return, with the padding computed in calculatePadding().
+        CompatElevationEnvironment environment = CompatElevationEnvironment.getInstance(context);
+        int paddingLeft = showShadowLeft ? environment.getShadowLengthLeft(elevation, 0) : 0;
+        int paddingTop = showShadowTop ? environment.getShadowLengthTop(elevation) : 0;
+        int paddingRight =
+                showShadowRight ? environment.getShadowLengthRight(elevation, environment.getScreenWidth()) : 0;
+        int paddingBottom =
+                showShadowBottom ? environment.getShadowLengthBottom(elevation, environment.getScreenHeight()) : 0;
+        Rect screenBounds = sTmpPrewarmBounds;
+        screenBounds.left = left + paddingLeft;
+        screenBounds.top = top + paddingTop;
+        screenBounds.right = right - paddingRight - wrappedPadding.left - wrappedPadding.right;
+        screenBounds.bottom = bottom - paddingBottom - wrappedPadding.top - wrappedPadding.bottom;
+        if (screenBounds.isEmpty()) {
+            return;
+        }
+
+        CompatElevationTextureCache.Key key = sTmpPrewarmKey;
+        setTextureKey(key, environment, elevation, cornerRadius,
+                      showShadowLeft, showShadowTop, showShadowRight, showShadowBottom, screenBounds);
+        // Textures that don't fit in the cache would be dropped as soon as they are rendered.
+        if (CompatElevationTextureCache.fits(key) && CompatElevationTextureCache.get(key) == null
+                && !sPrewarmingKeys.contains(key)) {
+            key = key.copy();
+            sPrewarmingKeys.add(key);
+            CompatElevationShadowEngine.submit(createTextureRunnable(0, key, sPrewarmListener));
+        }
+    }
+
+    /**
+     * Returns the on-screen bounds of the drawable, excluding the shadow and wrapped drawable padding.
+     */
+    private Rect getScreenBounds(View view) {
+        view.getLocationOnScreen(mScreenLocation);
+        // Bounds are relative to the view, which is not necessarily the one the drawable is set on.
+        int left = mScreenLocation[0] + mBounds.left - mWrappedPadding.left;
+        int top = mScreenLocation[1] + mBounds.top - mWrappedPadding.top;
+        mScreenBounds.set(left, top, left + mBounds.width(), top + mBounds.height());
+        return mScreenBounds;
+    }
+
+    /**
+     * Returns the bottom shadow alpha, which increases the further down the drawable is.
+     */
+    private static float getShadowAlphaBottom(CompatElevationEnvironment environment, float elevation,
+                                              int shadowLengthBottom) {
+        int maxShadowLengthBottom = environment.getShadowLengthBottom(elevation, environment.getScreenHeight());
+        return MIN_BOTTOM_ALPHA + INC_BOTTOM_ALPHA * shadowLengthBottom / maxShadowLengthBottom;
+    }
+
+    private void commitTexture(Bitmap texture, int shadowLengthLeft, int shadowLengthTop,
+                               int shadowLengthRight, int shadowLengthBottom) {
+        mShadowLengthLeft = shadowLengthLeft;
+        mShadowLengthTop = shadowLengthTop;
+        mShadowLengthRight = shadowLengthRight;
+        mShadowLengthBottom = shadowLengthBottom;
+        mShadowTexture = texture;
+        mFallbackTexture = null;
+        mIsShadowSetup = true;
+
+        invalidateSelf();
+    }
+
     /**
      * Returns the ambient shadow for the current elevation.
      */
     private int getShadowLengthAmbient() {
-        return (int) Math.ceil(mElevation * 3 / 8);
+        return mEnvironment.getShadowLengthAmbient(mElevation);
     }
 
     /**
      * Returns the left shadow length for {@code left} position.
      */
     private int getShadowLengthLeft(int left) {
-        int shadowLengthAmbient = getShadowLengthAmbient();
-        if (left < mScreenWidth / 2f) {
-            return Math.max(shadowLengthAmbient,
-                            (int) (mElevation / (mLightHeight / (mLightOffsetX + (mScreenWidth - left)))));
-        } else {
-            return shadowLengthAmbient;
-        }
+        return mEnvironment.getShadowLengthLeft(mElevation, left);
     }
 
     /**
      * Returns the top shadow length.
      */
     private int getShadowLengthTop() {
-        return getShadowLengthAmbient();
+        return mEnvironment.getShadowLengthTop(mElevation);
     }
 
     /**
      * Returns the right shadow length for {@code right} position.
      */
     private int getShadowLengthRight(int right) {
-        int shadowLengthAmbient = getShadowLengthAmbient();
-        if (right > mScreenWidth / 2f) {
-            return Math.max(shadowLengthAmbient, (int) (mElevation / (mLightHeight / (mLightOffsetX + right))));
-        } else {
-            return shadowLengthAmbient;
-        }
+        return mEnvironment.getShadowLengthRight(mElevation, right);
     }
 
     /**
      * Returns the bottom shadow length for {@code bottom} position.
      */
     private int getShadowLengthBottom(int bottom) {
-        return Math.max(getShadowLengthAmbient(), (int) (mElevation / (mLightHeight / (mLightOffsetY + bottom))));
+        return mEnvironment.getShadowLengthBottom(mElevation, bottom);
     }
 
     /**
      * Store the shadow calculation result ({@link Shader}s for each side, {@link Bitmap} for the corners) and
-     * invalidate so that they are drawn on the next cycle.
+     * invalidate so that they are drawn on the next cycle. Results of superseded updates are dropped.
      */
     @Override
-    public void onShadowUpdate(int shadowLeftLength, int shadowTopLength, int shadowRightLength, int shadowBottomLength,
-                               boolean leftDirty, boolean topDirty, boolean rightDirty, boolean bottomDirty,
-                               Shader leftEdgeShader, Shader topEdgeShader,
-                               Shader rightEdgeShader, Shader bottomEdgeShader,
-                               Bitmap topLeftCornerBitmap, Bitmap topRightCornerBitmap,
-                               Bitmap bottomRightCornerBitmap, Bitmap bottomLeftCornerBitmap) {
-        mShadowLengthLeft = shadowLeftLength;
-        mShadowLengthTop = shadowTopLength;
-        mShadowLengthRight = shadowRightLength;
-        mShadowLengthBottom = shadowBottomLength;
+    public void onShadowUpdate(CompatElevationUpdateRunnable update) {
+        if (update.getGeneration() != mGeneration) {
+            update.releaseBitmaps();
+            update.recycle();
+            return;
+        }
+        mPendingUpdate = null;
+
+        if (update.getOutline() != null) {
+            // Kept even if it doesn't fit in the cache.
+            mOutlineMask = update.mOutlineMask;
+            CompatElevationOutlineMask.put(mOutlineMask);
+            update.recycle();
+            invalidateSelf();
+            return;
+        }
+
+        if (update.getTextureKey() != null) {
+            // Cached by the runnable if it fits, drawn from the result either way.
+            commitTexture(update.mTexture, update.getShadowLengthLeft(), update.getShadowLengthTop(),
+                          update.getShadowLengthRight(), update.getShadowLengthBottom());
+            update.recycle();
+            return;
+        }
+
+        mShadowLengthLeft = update.getShadowLengthLeft();
+        mShadowLengthTop = update.getShadowLengthTop();
+        mShadowLengthRight = update.getShadowLengthRight();
+        mShadowLengthBottom = update.getShadowLengthBottom();
+
+        boolean leftDirty = update.isDirtyLeft();
+        boolean topDirty = update.isDirtyTop();
+        boolean rightDirty = update.isDirtyRight();
+        boolean bottomDirty = update.isDirtyBottom();
 
         if (leftDirty) {
-            mShadowPaintLeft.setShader(leftEdgeShader);
+            mShadowPaintLeft.setShader(update.mEdgeShaderLeft);
         }
         if (topDirty) {
-            mShadowPaintTop.setShader(topEdgeShader);
+            mShadowPaintTop.setShader(update.mEdgeShaderTop);
         }
         if (rightDirty || leftDirty) {
-            mShadowPaintRight.setShader(rightEdgeShader);
+            mShadowPaintRight.setShader(update.mEdgeShaderRight);
         }
         if (bottomDirty || topDirty) {
-            mShadowPaintBottom.setShader(bottomEdgeShader);
+            mShadowPaintBottom.setShader(update.mEdgeShaderBottom);
         }
 
         if (leftDirty || topDirty) {
-            mShadowBitmapTopLeft = topLeftCornerBitmap;
+            retireBitmap(mShadowBitmapTopLeft);
+            mShadowBitmapTopLeft = update.mCornerBitmapTopLeft;
         }
         if (topDirty || rightDirty) {
-            mShadowBitmapTopRight = topRightCornerBitmap;
+            retireBitmap(mShadowBitmapTopRight);
+            mShadowBitmapTopRight = update.mCornerBitmapTopRight;
         }
         if (rightDirty || bottomDirty) {
-            mShadowBitmapBottomRight = bottomRightCornerBitmap;
+            retireBitmap(mShadowBitmapBottomRight);
+            mShadowBitmapBottomRight = update.mCornerBitmapBottomRight;
         }
         if (bottomDirty || leftDirty) {
-            mShadowBitmapBottomLeft = bottomLeftCornerBitmap;
+            retireBitmap(mShadowBitmapBottomLeft);
+            mShadowBitmapBottomLeft = update.mCornerBitmapBottomLeft;
         }
 
+        mFallbackTexture = null;
         mIsShadowSetup = true;
 
-        if (Looper.myLooper() == Looper.getMainLooper()) {
-            mInvalidateRunnable.run();
-        } else {
-            mHandler.post(mInvalidateRunnable);
+        update.recycle();
+
+        invalidateSelf();
+    }
+
+    /**
+     * Drops the pending update, if any. It's recycled if it didn't start yet, otherwise its result must be ignored
+     * by bumping the generation.
+     */
+    private void cancelPendingUpdate() {
+        if (CompatElevationShadowEngine.cancel(mPendingUpdate)) {
+            mPendingUpdate.recycle();
         }
+        mPendingUpdate = null;
     }
 
-    private float dpToPx(float dp) {
-        View view = mViewRef.get();
-        if (view != null) {
-            DisplayMetrics metrics = view.getResources().getDisplayMetrics();
-            return (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, dp, metrics);
-        } else {
-            return 0;
+    private void recordRegeneration() {
+        if (CompatElevationMetrics.isEnabled()) {
+            mRegenerationCount++;
+        }
+    }
+
+    /**
+     * Returns the number of shadow regenerations of this drawable while {@link CompatElevationMetrics} was enabled.
+     */
+    public int getRegenerationCount() {
+        return mRegenerationCount;
+    }
+
+    /**
+     * Queues {@code bitmap} to be returned to the {@link CompatElevationBitmapPool} after the next frame is drawn.
+     */
+    private void retireBitmap(Bitmap bitmap) {
+        if (bitmap != null) {
+            synchronized (mRetiredBitmaps) {
+                mRetiredBitmaps.add(bitmap);
+            }
         }
     }
 }
@@ -0,0 +1,215 @@
+package io.doist.material.elevation;
+
+import android.content.ComponentCallbacks;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Point;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.DisplayMetrics;
+import android.util.TypedValue;
+import android.view.Display;
+import android.view.WindowManager;
+
+import java.util.ArrayList;
+import java.util.WeakHashMap;
+
+/**
+ * Process-wide light model for compat elevation shadows: light position and screen size, from which the shadow
+ * lengths are computed. Main thread only.
+ *
+ * Shadows are positioned on the physical screen, so the screen size is that of the whole display, not of the window,
+ * which differs in multi-window mode. On configuration changes that affect the screen size or density (rotation,
+ * density change, ...), the values are refreshed and all registered {@link OnEnvironmentChangedListener}s are
+ * notified once, in a single batch.
+ */
+final class CompatElevationEnvironment implements ComponentCallbacks {
+    // For calculating each shadow length.
+    private static final int LIGHT_HEIGHT_DIP = 800;
+    private static final int LIGHT_Y_OFFSET_DIP = 640;
+    private static final int LIGHT_X_OFFSET_DIP = 160;
+
+    private static CompatElevationEnvironment sInstance;
+
+    private final Context mContext;
+
+    // Source light / screen.
+    private float mLightHeight;
+    private float mLightOffsetX;
+    private float mLightOffsetY;
+    private int mScreenWidth;
+    private int mScreenHeight;
+
+    private final Point mTmpScreenSize = new Point();
+
+    private final WeakHashMap<OnEnvironmentChangedListener, Boolean> mListeners = new WeakHashMap<>();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private boolean mDispatchPending;
+    private final Runnable mDispatchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mDispatchPending = false;
+            // Copy, as listeners may unregister / register themselves while handling the change.
+            ArrayList<OnEnvironmentChangedListener> listeners = new ArrayList<>(mListeners.keySet());
+            for (int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).onEnvironmentChanged();
+            }
+        }
+    };
+
+    public static CompatElevationEnvironment getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CompatElevationEnvironment(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private CompatElevationEnvironment(Context context) {
+        mContext = context;
+        updateMetrics();
+        mContext.registerComponentCallbacks(this);
+    }
+
+    /**
+     * Refreshes the light model and screen size.
+     *
+     * @return true if any of them changed, false otherwise.
+     */
+    private boolean updateMetrics() {
+        DisplayMetrics metrics = mContext.getResources().getDisplayMetrics();
+        float lightHeight = dpToPx(LIGHT_HEIGHT_DIP, metrics);
+        float lightOffsetX = dpToPx(LIGHT_X_OFFSET_DIP, metrics);
+        float lightOffsetY = dpToPx(LIGHT_Y_OFFSET_DIP, metrics);
+        Point screenSize = getScreenSize(metrics);
+        if (lightHeight != mLightHeight || lightOffsetX != mLightOffsetX || lightOffsetY != mLightOffsetY
+                || screenSize.x != mScreenWidth || screenSize.y != mScreenHeight) {
+            mLightHeight = lightHeight;
+            mLightOffsetX = lightOffsetX;
+            mLightOffsetY = lightOffsetY;
+            mScreenWidth = screenSize.x;
+            mScreenHeight = screenSize.y;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the size of the whole display in its current orientation, falling back to {@code metrics}.
+     */
+    @SuppressWarnings("deprecation")
+    private Point getScreenSize(DisplayMetrics metrics) {
+        Point size = mTmpScreenSize;
+        WindowManager windowManager = (WindowManager) mContext.getSystemService(Context.WINDOW_SERVICE);
+        Display display = windowManager != null ? windowManager.getDefaultDisplay() : null;
+        if (display == null) {
+            size.set(metrics.widthPixels, metrics.heightPixels);
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            display.getRealSize(size);
+        } else {
+            display.getSize(size);
+        }
+        return size;
+    }
+
+    public int getScreenWidth() {
+        return mScreenWidth;
+    }
+
+    public int getScreenHeight() {
+        return mScreenHeight;
+    }
+
+    /**
+     * Returns the ambient shadow length for {@code elevation}.
+     */
+    public int getShadowLengthAmbient(float elevation) {
+        return computeShadowLengthAmbient(elevation);
+    }
+
+    /**
+     * Returns the left shadow length for {@code elevation} and {@code left} position.
+     */
+    public int getShadowLengthLeft(float elevation, int left) {
+        return computeShadowLengthLeft(elevation, computeShadowLengthAmbient(elevation), left);
+    }
+
+    /**
+     * Returns the top shadow length for {@code elevation}.
+     */
+    public int getShadowLengthTop(float elevation) {
+        return computeShadowLengthAmbient(elevation);
+    }
+
+    /**
+     * Returns the right shadow length for {@code elevation} and {@code right} position.
+     */
+    public int getShadowLengthRight(float elevation, int right) {
+        return computeShadowLengthRight(elevation, computeShadowLengthAmbient(elevation), right);
+    }
+
+    /**
+     * Returns the bottom shadow length for {@code elevation} and {@code bottom} position.
+     */
+    public int getShadowLengthBottom(float elevation, int bottom) {
+        return computeShadowLengthBottom(elevation, computeShadowLengthAmbient(elevation), bottom);
+    }
+
+    private int computeShadowLengthAmbient(float elevation) {
+        return (int) Math.ceil(elevation * 3 / 8);
+    }
+
+    private int computeShadowLengthLeft(float elevation, int shadowLengthAmbient, int left) {
+        if (left < mScreenWidth / 2f) {
+            return Math.max(shadowLengthAmbient,
+                            (int) (elevation / (mLightHeight / (mLightOffsetX + (mScreenWidth - left)))));
+        } else {
+            return shadowLengthAmbient;
+        }
+    }
+
+    private int computeShadowLengthRight(float elevation, int shadowLengthAmbient, int right) {
+        if (right > mScreenWidth / 2f) {
+            return Math.max(shadowLengthAmbient, (int) (elevation / (mLightHeight / (mLightOffsetX + right))));
+        } else {
+            return shadowLengthAmbient;
+        }
+    }
+
+    private int computeShadowLengthBottom(float elevation, int shadowLengthAmbient, int bottom) {
+        return Math.max(shadowLengthAmbient, (int) (elevation / (mLightHeight / (mLightOffsetY + bottom))));
+    }
+
+    public void registerListener(OnEnvironmentChangedListener listener) {
+        mListeners.put(listener, Boolean.TRUE);
+    }
+
+    public void unregisterListener(OnEnvironmentChangedListener listener) {
+        mListeners.remove(listener);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+        if (updateMetrics() && !mDispatchPending) {
+            mDispatchPending = true;
+            mHandler.post(mDispatchRunnable);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        CompatElevationTextureCache.clear();
+        CompatElevationBitmapPool.clear();
+    }
+
+    private static float dpToPx(float dp, DisplayMetrics metrics) {
+        return (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, dp, metrics);
+    }
+
+    /**
+     * Notified after the environment changed. Shadows and their padding must be recalculated.
+     */
+    interface OnEnvironmentChangedListener {
+        void onEnvironmentChanged();
+    }
+}
@@ -0,0 +1,341 @@
+package io.doist.material.elevation;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.util.AttributeSet;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+
+import io.doist.material.R;
+
+/**
+ * {@link FrameLayout} that draws the elevation drop shadows of its children, instead of each child wrapping its own
+ * background through {@link CompatElevationDelegate}.
+ *
+ * Shadows are drawn in {@link #dispatchDraw(Canvas)}, below the children, so the children's background, padding,
+ * size and margins are left untouched and no extra measure / layout passes happen. Shadows are not clipped by the
+ * children's bounds either, only by this layout's.
+ *
+ * Set the elevation of each child through {@link LayoutParams}, or the {@code layout_compatElevation},
+ * {@code layout_compatCornerRadius} and {@code layout_compatShownShadows} attributes. With
+ * {@link CompatElevationDelegate#SHADOW_RENDER_MODE_TEXTURE}, identical children share the same shadow texture.
+ */
+public class CompatElevationFrameLayout extends FrameLayout {
+    private int mShadowRenderMode = CompatElevationDelegate.SHADOW_RENDER_MODE_EDGES;
+
+    // Recreates the shadows when the screen size or density changes, while attached.
+    private final CompatElevationEnvironment.OnEnvironmentChangedListener mEnvironmentChangedListener =
+            new CompatElevationEnvironment.OnEnvironmentChangedListener() {
+                @Override
+                public void onEnvironmentChanged() {
+                    for (int i = 0; i < getChildCount(); i++) {
+                        releaseShadowDrawable(getLayoutParams(getChildAt(i)));
+                    }
+                    invalidate();
+                }
+            };
+
+    public CompatElevationFrameLayout(Context context) {
+        super(context);
+    }
+
+    public CompatElevationFrameLayout(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    public CompatElevationFrameLayout(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+    }
+
+    /**
+     * @see CompatElevationDelegate#setShadowRenderMode(int)
+     */
+    public void setShadowRenderMode(int shadowRenderMode) {
+        if (mShadowRenderMode != shadowRenderMode) {
+            mShadowRenderMode = shadowRenderMode;
+
+            for (int i = 0; i < getChildCount(); i++) {
+                CompatElevationDrawable shadowDrawable = getLayoutParams(getChildAt(i)).mShadowDrawable;
+                if (shadowDrawable != null) {
+                    shadowDrawable.setRenderMode(shadowRenderMode);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the elevation of {@code child}, which must be a child of this layout.
+     */
+    public void setChildElevation(View child, float elevation) {
+        LayoutParams params = getLayoutParams(child);
+        if (params.elevation != elevation) {
+            params.elevation = elevation;
+            if (params.mShadowDrawable != null) {
+                if (elevation > 0) {
+                    // Regenerated in the background when drawn, as the bounds are only updated then.
+                    params.mShadowDrawable.setElevationDeferred(elevation);
+                } else {
+                    releaseShadowDrawable(params);
+                }
+            }
+            invalidate();
+        }
+    }
+
+    /**
+     * Sets the corner radius of {@code child}'s shadow, which must be a child of this layout.
+     */
+    public void setChildCornerRadius(View child, float cornerRadius) {
+        LayoutParams params = getLayoutParams(child);
+        if (params.cornerRadius != cornerRadius) {
+            params.cornerRadius = cornerRadius;
+            if (params.mShadowDrawable != null) {
+                params.mShadowDrawable.setCornerRadius(cornerRadius);
+            }
+            invalidate();
+        }
+    }
+
+    /**
+     * Sets the shape of {@code child}'s shadow, which must be a child of this layout.
+     *
+     * @see CompatElevationDelegate#setShadowOutline(CompatElevationOutline)
+     */
+    public void setChildShadowOutline(View child, CompatElevationOutline shadowOutline) {
+        LayoutParams params = getLayoutParams(child);
+        if (params.shadowOutline != shadowOutline) {
+            params.shadowOutline = shadowOutline;
+            if (params.mShadowDrawable != null) {
+                params.mShadowDrawable.setOutline(shadowOutline);
+            }
+        }
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+
+        CompatElevationEnvironment.getInstance(getContext()).registerListener(mEnvironmentChangedListener);
+
+        setShadowsVisible(getWindowVisibility() == VISIBLE);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        CompatElevationEnvironment.getInstance(getContext()).unregisterListener(mEnvironmentChangedListener);
+
+        // Suspends shadow work until attached again.
+        setShadowsVisible(false);
+
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+
+        setShadowsVisible(visibility == VISIBLE);
+    }
+
+    @Override
+    public void onViewRemoved(View child) {
+        super.onViewRemoved(child);
+
+        // The layout params may be reused by another layout, which must not draw a shadow tied to this one.
+        if (child.getLayoutParams() instanceof LayoutParams) {
+            releaseShadowDrawable(getLayoutParams(child));
+        }
+    }
+
+    private void setShadowsVisible(boolean visible) {
+        for (int i = 0; i < getChildCount(); i++) {
+            CompatElevationDrawable shadowDrawable = getLayoutParams(getChildAt(i)).mShadowDrawable;
+            if (shadowDrawable != null) {
+                shadowDrawable.setVisible(visible, false);
+            }
+        }
+    }
+
+    @Override
+    protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
+        super.onLayout(changed, left, top, right, bottom);
+
+        // Start generating the shadows of visible children in the background, before they are first drawn.
+        for (int i = 0; i < getChildCount(); i++) {
+            View child = getChildAt(i);
+            if (child.getVisibility() != VISIBLE) {
+                continue;
+            }
+            CompatElevationDrawable shadowDrawable = ensureShadowDrawable(child);
+            if (shadowDrawable != null) {
+                setShadowBounds(child, shadowDrawable);
+                shadowDrawable.prepareShadow();
+            }
+        }
+    }
+
+    @Override
+    protected void dispatchDraw(Canvas canvas) {
+        for (int i = 0; i < getChildCount(); i++) {
+            View child = getChildAt(i);
+            if (child.getVisibility() == VISIBLE) {
+                CompatElevationDrawable shadowDrawable = ensureShadowDrawable(child);
+                if (shadowDrawable != null) {
+                    setShadowBounds(child, shadowDrawable);
+                    shadowDrawable.draw(canvas);
+                }
+            }
+        }
+
+        super.dispatchDraw(canvas);
+    }
+
+    private CompatElevationDrawable ensureShadowDrawable(View child) {
+        LayoutParams params = getLayoutParams(child);
+        if (params.elevation <= 0 || (params.mShadowDrawable != null && params.mShadowDrawable.getCallback() != this)) {
+            // No shadow, or one created by another layout the child was moved from.
+            releaseShadowDrawable(params);
+        }
+        if (params.elevation > 0 && params.mShadowDrawable == null) {
+            int shownShadows = CompatElevationDelegate.resolveShownShadows(params.shownShadows, child);
+            CompatElevationDrawable shadowDrawable = new CompatElevationDrawable(
+                    new ColorDrawable(Color.TRANSPARENT), this, params.elevation, params.cornerRadius,
+                    (shownShadows & CompatElevationDelegate.SHOW_SHADOW_LEFT) != 0,
+                    (shownShadows & CompatElevationDelegate.SHOW_SHADOW_TOP) != 0,
+                    (shownShadows & CompatElevationDelegate.SHOW_SHADOW_RIGHT) != 0,
+                    (shownShadows & CompatElevationDelegate.SHOW_SHADOW_BOTTOM) != 0);
+            shadowDrawable.setRenderMode(mShadowRenderMode);
+            shadowDrawable.setOutline(params.shadowOutline);
+            shadowDrawable.setVisible(getWindowVisibility() == VISIBLE, false);
+            shadowDrawable.setCallback(this);
+            params.mShadowDrawable = shadowDrawable;
+        }
+        return params.mShadowDrawable;
+    }
+
+    /**
+     * Drops the shadow drawable of {@code params}, cancelling its pending update so it doesn't commit into it.
+     */
+    private void releaseShadowDrawable(LayoutParams params) {
+        if (params.mShadowDrawable != null) {
+            params.mShadowDrawable.suspendUpdates();
+            params.mShadowDrawable.setCallback(null);
+            params.mShadowDrawable = null;
+        }
+    }
+
+    /**
+     * Sets the bounds of {@code shadowDrawable} around {@code child}, in this layout's coordinates.
+     */
+    private void setShadowBounds(View child, CompatElevationDrawable shadowDrawable) {
+        int left = child.getLeft() + Math.round(child.getTranslationX());
+        int top = child.getTop() + Math.round(child.getTranslationY());
+        shadowDrawable.setBounds(left - shadowDrawable.getPaddingLeft(),
+                                 top - shadowDrawable.getPaddingTop(),
+                                 left + child.getWidth() + shadowDrawable.getPaddingRight(),
+                                 top + child.getHeight() + shadowDrawable.getPaddingBottom());
+    }
+
+    private LayoutParams getLayoutParams(View child) {
+        return (LayoutParams) child.getLayoutParams();
+    }
+
+    @Override
+    protected boolean verifyDrawable(Drawable who) {
+        return who instanceof CompatElevationDrawable || super.verifyDrawable(who);
+    }
+
+    @Override
+    public void invalidateDrawable(Drawable drawable) {
+        if (drawable instanceof CompatElevationDrawable) {
+            // Shadows extend beyond the drawable bounds.
+            invalidate();
+        } else {
+            super.invalidateDrawable(drawable);
+        }
+    }
+
+    @Override
+    protected boolean checkLayoutParams(ViewGroup.LayoutParams p) {
+        return p instanceof LayoutParams;
+    }
+
+    @Override
+    protected LayoutParams generateDefaultLayoutParams() {
+        return new LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.MATCH_PARENT);
+    }
+
+    @Override
+    public LayoutParams generateLayoutParams(AttributeSet attrs) {
+        return new LayoutParams(getContext(), attrs);
+    }
+
+    @Override
+    protected LayoutParams generateLayoutParams(ViewGroup.LayoutParams p) {
+        if (p instanceof LayoutParams) {
+            return new LayoutParams((LayoutParams) p);
+        } else if (p instanceof FrameLayout.LayoutParams) {
+            return new LayoutParams((FrameLayout.LayoutParams) p);
+        } else if (p instanceof MarginLayoutParams) {
+            return new LayoutParams((MarginLayoutParams) p);
+        } else {
+            return new LayoutParams(p);
+        }
+    }
+
+    /**
+     * {@link FrameLayout.LayoutParams} with the elevation shadow of the child.
+     */
+    public static class LayoutParams extends FrameLayout.LayoutParams {
+        public float elevation = 0f;
+        public float cornerRadius = 0f;
+        public int shownShadows = CompatElevationDelegate.SHOW_ALL_SHADOWS;
+        public CompatElevationOutline shadowOutline;
+
+        CompatElevationDrawable mShadowDrawable;
+
+        public LayoutParams(Context c, AttributeSet attrs) {
+            super(c, attrs);
+
+            TypedArray a = c.obtainStyledAttributes(attrs, R.styleable.CompatElevationFrameLayout_Layout);
+            elevation = a.getDimensionPixelOffset(
+                    R.styleable.CompatElevationFrameLayout_Layout_layout_compatElevation, 0);
+            cornerRadius = a.getDimensionPixelOffset(
+                    R.styleable.CompatElevationFrameLayout_Layout_layout_compatCornerRadius, 0);
+            shownShadows = a.getInt(
+                    R.styleable.CompatElevationFrameLayout_Layout_layout_compatShownShadows,
+                    CompatElevationDelegate.SHOW_ALL_SHADOWS);
+            a.recycle();
+        }
+
+        public LayoutParams(int width, int height) {
+            super(width, height);
+        }
+
+        public LayoutParams(ViewGroup.LayoutParams source) {
+            super(source);
+        }
+
+        public LayoutParams(MarginLayoutParams source) {
+            super(source);
+        }
+
+        public LayoutParams(FrameLayout.LayoutParams source) {
+            super((MarginLayoutParams) source);
+            gravity = source.gravity;
+        }
+
+        public LayoutParams(LayoutParams source) {
+            this((FrameLayout.LayoutParams) source);
+            elevation = source.elevation;
+            cornerRadius = source.cornerRadius;
+            shownShadows = source.shownShadows;
+            shadowOutline = source.shadowOutline;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package io.doist.material.elevation;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Opt-in counters and timings for compat elevation shadows, to tell how much work they cost, eg. while scrolling.
+ * Disabled by default, in which case nothing is recorded. Safe to use from any thread.
+ *
+ * Shadow updates are also wrapped in {@link androidx.core.os.TraceCompat} sections, regardless of this setting.
+ *
+ * @see CompatElevationDelegate#getShadowRegenerationCount()
+ */
+public final class CompatElevationMetrics {
+    private static volatile boolean sEnabled;
+
+    private static final AtomicLong sSyncRunCount = new AtomicLong();
+    private static final AtomicLong sAsyncRunCount = new AtomicLong();
+    private static final AtomicLong sRunTimeNanos = new AtomicLong();
+    private static final AtomicLong sQueueWaitTimeNanos = new AtomicLong();
+    private static final AtomicLong sMaxQueueDepth = new AtomicLong();
+    private static final AtomicLong sBitmapBytesAllocated = new AtomicLong();
+
+    private CompatElevationMetrics() {
+        throw new InstantiationError("Must not instantiate this class");
+    }
+
+    /**
+     * Enables or disables recording. Counters are kept when disabling, see {@link #reset()}.
+     */
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Returns the current values of all counters.
+     */
+    public static Snapshot getSnapshot() {
+        return new Snapshot(sSyncRunCount.get(), sAsyncRunCount.get(), sRunTimeNanos.get(),
+                            sQueueWaitTimeNanos.get(), CompatElevationShadowEngine.getQueueDepth(),
+                            sMaxQueueDepth.get(), sBitmapBytesAllocated.get());
+    }
+
+    /**
+     * Resets all counters to 0.
+     */
+    public static void reset() {
+        sSyncRunCount.set(0);
+        sAsyncRunCount.set(0);
+        sRunTimeNanos.set(0);
+        sQueueWaitTimeNanos.set(0);
+        sMaxQueueDepth.set(0);
+        sBitmapBytesAllocated.set(0);
+    }
+
+    static void recordRun(boolean async, long runTimeNanos, long queueWaitTimeNanos) {
+        if (sEnabled) {
+            (async ? sAsyncRunCount : sSyncRunCount).incrementAndGet();
+            sRunTimeNanos.addAndGet(runTimeNanos);
+            sQueueWaitTimeNanos.addAndGet(queueWaitTimeNanos);
+        }
+    }
+
+    static void recordQueueDepth(int queueDepth) {
+        if (sEnabled) {
+            long maxQueueDepth;
+            do {
+                maxQueueDepth = sMaxQueueDepth.get();
+            } while (queueDepth > maxQueueDepth && !sMaxQueueDepth.compareAndSet(maxQueueDepth, queueDepth));
+        }
+    }
+
+    static void recordBitmapAllocation(int byteCount) {
+        if (sEnabled) {
+            sBitmapBytesAllocated.addAndGet(byteCount);
+        }
+    }
+
+    /**
+     * Values of the counters at a given time.
+     */
+    public static final class Snapshot {
+        private final long mSyncRunCount;
+        private final long mAsyncRunCount;
+        private final long mRunTimeNanos;
+        private final long mQueueWaitTimeNanos;
+        private final int mQueueDepth;
+        private final long mMaxQueueDepth;
+        private final long mBitmapBytesAllocated;
+
+        Snapshot(long syncRunCount, long asyncRunCount, long runTimeNanos, long queueWaitTimeNanos,
+                 int queueDepth, long maxQueueDepth, long bitmapBytesAllocated) {
+            mSyncRunCount = syncRunCount;
+            mAsyncRunCount = asyncRunCount;
+            mRunTimeNanos = runTimeNanos;
+            mQueueWaitTimeNanos = queueWaitTimeNanos;
+            mQueueDepth = queueDepth;
+            mMaxQueueDepth = maxQueueDepth;
+            mBitmapBytesAllocated = bitmapBytesAllocated;
+        }
+
+        /**
+         * Returns the number of shadow regenerations, across all drawables.
+         */
+        public long getRegenerationCount() {
+            return mSyncRunCount + mAsyncRunCount;
+        }
+
+        /**
+         * Returns the number of shadow regenerations that ran on the main thread.
+         */
+        public long getSyncRunCount() {
+            return mSyncRunCount;
+        }
+
+        /**
+         * Returns the number of shadow regenerations that ran in the background.
+         */
+        public long getAsyncRunCount() {
+            return mAsyncRunCount;
+        }
+
+        /**
+         * Returns the total time spent regenerating shadows, in nanoseconds.
+         */
+        public long getRunTimeNanos() {
+            return mRunTimeNanos;
+        }
+
+        /**
+         * Returns the total time background regenerations spent queued before running, in nanoseconds.
+         */
+        public long getQueueWaitTimeNanos() {
+            return mQueueWaitTimeNanos;
+        }
+
+        /**
+         * Returns the number of background regenerations waiting to run when the snapshot was taken.
+         */
+        public int getQueueDepth() {
+            return mQueueDepth;
+        }
+
+        /**
+         * Returns the highest number of background regenerations waiting to run at once.
+         */
+        public long getMaxQueueDepth() {
+            return mMaxQueueDepth;
+        }
+
+        /**
+         * Returns the number of bytes allocated for shadow bitmaps, excluding those reused from the pool.
+         */
+        public long getBitmapBytesAllocated() {
+            return mBitmapBytesAllocated;
+        }
+
+        @Override
+        public String toString() {
+            return "CompatElevationMetrics.Snapshot{"
+                    + "regenerations=" + getRegenerationCount()
+                    + ", sync=" + mSyncRunCount
+                    + ", async=" + mAsyncRunCount
+                    + ", runTimeMs=" + mRunTimeNanos / 1000000
+                    + ", queueWaitTimeMs=" + mQueueWaitTimeNanos / 1000000
+                    + ", queueDepth=" + mQueueDepth
+                    + ", maxQueueDepth=" + mMaxQueueDepth
+                    + ", bitmapBytesAllocated=" + mBitmapBytesAllocated
+                    + "}";
+        }
+    }
+}
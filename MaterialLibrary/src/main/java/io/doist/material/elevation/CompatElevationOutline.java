@@ -0,0 +1,63 @@
+package io.doist.material.elevation;
+
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.GradientDrawable;
+
+/**
+ * Shape of an elevation shadow, for shapes other than rounded rectangles: pills, inset circles, custom paths...
+ *
+ * Outline shadows are a blurred alpha mask of the shape, rendered once per outline, size and elevation and cached,
+ * so drawing them is a single bitmap blit. Shown shadows and corner radius don't apply to them.
+ *
+ * Outlines are compared by identity: create a new one when the shape changes.
+ *
+ * @see CompatElevationDelegate#setShadowOutline(CompatElevationOutline)
+ */
+public final class CompatElevationOutline {
+    private final Path mPath;
+    private final Drawable mShape;
+    private final Paint mPaint;
+
+    private CompatElevationOutline(Path path, Drawable shape) {
+        mPath = path;
+        mShape = shape;
+        mPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        mPaint.setColor(Color.BLACK);
+    }
+
+    /**
+     * Creates an outline from {@code path}, in the coordinates of the elevated area, ie. excluding the shadow
+     * padding. The path is copied, so later changes to it are ignored.
+     */
+    public static CompatElevationOutline fromPath(Path path) {
+        return new CompatElevationOutline(new Path(path), null);
+    }
+
+    /**
+     * Creates an outline from {@code shape}, stretched over the elevated area like a background would be.
+     */
+    public static CompatElevationOutline fromShape(GradientDrawable shape) {
+        Drawable.ConstantState state = shape.getConstantState();
+        GradientDrawable copy = (GradientDrawable) (state != null ? state.newDrawable() : shape).mutate();
+        // Only the shape matters, make it fully opaque.
+        copy.setColor(Color.BLACK);
+        return new CompatElevationOutline(null, copy);
+    }
+
+    /**
+     * Draws the opaque shape in {@code canvas}, sized {@code width} by {@code height}. Called from the shadow threads,
+     * hence synchronized as the shape is resized for each mask.
+     */
+    synchronized void draw(Canvas canvas, int width, int height) {
+        if (mPath != null) {
+            canvas.drawPath(mPath, mPaint);
+        } else {
+            mShape.setBounds(0, 0, width, height);
+            mShape.draw(canvas);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package io.doist.material.elevation;
+
+import android.graphics.Bitmap;
+import android.graphics.BlurMaskFilter;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.LruCache;
+
+/**
+ * Blurred {@link Bitmap.Config#ALPHA_8} mask of a {@link CompatElevationOutline}, drawn as its shadow.
+ *
+ * Masks are rendered in the background by {@link CompatElevationUpdateRunnable}, then cached per outline, size and
+ * blur radius and shared by all drawables using them. The cache is main thread only.
+ */
+final class CompatElevationOutlineMask {
+    private static final int MAX_CACHE_SIZE_BYTES = 1024 * 1024;
+
+    private static final LruCache<Key, CompatElevationOutlineMask> sCache =
+            new LruCache<Key, CompatElevationOutlineMask>(MAX_CACHE_SIZE_BYTES) {
+                @Override
+                protected int sizeOf(Key key, CompatElevationOutlineMask value) {
+                    return value.mBitmap.getRowBytes() * value.mBitmap.getHeight();
+                }
+            };
+
+    private static final Key sTmpKey = new Key();
+
+    private final CompatElevationOutline mOutline;
+    private final int mWidth;
+    private final int mHeight;
+    private final int mBlurRadius;
+
+    final Bitmap mBitmap;
+    // Position of the mask relative to the outline, as the blur spreads outside of it.
+    final int mOffsetX;
+    final int mOffsetY;
+
+    private CompatElevationOutlineMask(CompatElevationOutline outline, int width, int height, int blurRadius,
+                                       Bitmap bitmap, int offsetX, int offsetY) {
+        mOutline = outline;
+        mWidth = width;
+        mHeight = height;
+        mBlurRadius = blurRadius;
+        mBitmap = bitmap;
+        mOffsetX = offsetX;
+        mOffsetY = offsetY;
+    }
+
+    /**
+     * Returns true if this is the mask of {@code outline} sized {@code width} by {@code height} and blurred by
+     * {@code blurRadius}.
+     */
+    boolean matches(CompatElevationOutline outline, int width, int height, int blurRadius) {
+        return mOutline == outline && mWidth == width && mHeight == height && mBlurRadius == blurRadius;
+    }
+
+    /**
+     * Returns the cached mask of {@code outline} sized {@code width} by {@code height} and blurred by
+     * {@code blurRadius}, or null if it's not cached.
+     */
+    public static CompatElevationOutlineMask get(CompatElevationOutline outline, int width, int height,
+                                                 int blurRadius) {
+        sTmpKey.set(outline, width, height, blurRadius);
+        CompatElevationOutlineMask mask = sCache.get(sTmpKey);
+        sTmpKey.outline = null;
+        return mask;
+    }
+
+    public static void put(CompatElevationOutlineMask mask) {
+        Key key = new Key();
+        key.set(mask.mOutline, mask.mWidth, mask.mHeight, mask.mBlurRadius);
+        sCache.put(key, mask);
+    }
+
+    /**
+     * Renders the mask of {@code outline} sized {@code width} by {@code height} and blurred by {@code blurRadius}.
+     * Can be called from any thread.
+     */
+    static CompatElevationOutlineMask create(CompatElevationOutline outline, int width, int height,
+                                             int blurRadius) {
+        Bitmap shape = Bitmap.createBitmap(Math.max(1, width), Math.max(1, height), Bitmap.Config.ALPHA_8);
+        outline.draw(new Canvas(shape), width, height);
+        CompatElevationMetrics.recordBitmapAllocation(shape.getRowBytes() * shape.getHeight());
+
+        Paint blurPaint = new Paint();
+        blurPaint.setMaskFilter(new BlurMaskFilter(Math.max(1, blurRadius), BlurMaskFilter.Blur.NORMAL));
+        int[] offset = new int[2];
+        Bitmap mask = shape.extractAlpha(blurPaint, offset);
+        CompatElevationMetrics.recordBitmapAllocation(mask.getRowBytes() * mask.getHeight());
+        shape.recycle();
+
+        return new CompatElevationOutlineMask(outline, width, height, blurRadius, mask, offset[0], offset[1]);
+    }
+
+    private static final class Key {
+        CompatElevationOutline outline;
+        int width;
+        int height;
+        int blurRadius;
+
+        void set(CompatElevationOutline outline, int width, int height, int blurRadius) {
+            this.outline = outline;
+            this.width = width;
+            this.height = height;
+            this.blurRadius = blurRadius;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return outline == key.outline
+                    && width == key.width
+                    && height == key.height
+                    && blurRadius == key.blurRadius;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = System.identityHashCode(outline);
+            result = 31 * result + width;
+            result = 31 * result + height;
+            result = 31 * result + blurRadius;
+            return result;
+        }
+    }
+}
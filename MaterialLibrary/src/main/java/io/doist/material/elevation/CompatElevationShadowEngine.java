@@ -0,0 +1,79 @@
+package io.doist.material.elevation;
+
+import android.os.Process;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs {@link CompatElevationUpdateRunnable}s in the background, in parallel, on a bounded pool of threads sized to
+ * the available cores.
+ *
+ * Ordering between updates of the same drawable is not guaranteed here. Each {@link CompatElevationDrawable} tags its
+ * updates with a generation and only commits the latest one, on the main thread.
+ */
+final class CompatElevationShadowEngine {
+    private static final int MAX_POOL_SIZE = 4;
+    private static final int KEEP_ALIVE_SECONDS = 2;
+
+    private static final int POOL_SIZE =
+            Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() - 1, MAX_POOL_SIZE));
+
+    private static final BlockingQueue<Runnable> sQueue = new LinkedBlockingQueue<>();
+    private static final ThreadPoolExecutor sExecutor;
+    static {
+        sExecutor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, sQueue,
+                                           new ShadowThreadFactory());
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private CompatElevationShadowEngine() {
+        throw new InstantiationError("Must not instantiate this class");
+    }
+
+    /**
+     * Schedules {@code runnable} to run in the background.
+     */
+    public static void submit(CompatElevationUpdateRunnable runnable) {
+        if (CompatElevationMetrics.isEnabled()) {
+            runnable.setSubmitTimeNanos(System.nanoTime());
+        }
+        sExecutor.execute(runnable);
+        CompatElevationMetrics.recordQueueDepth(sQueue.size());
+    }
+
+    /**
+     * Removes {@code runnable} from the queue, if it didn't start yet.
+     *
+     * @return true if the runnable was removed and won't run, false otherwise.
+     */
+    public static boolean cancel(CompatElevationUpdateRunnable runnable) {
+        return runnable != null && sExecutor.remove(runnable);
+    }
+
+    /**
+     * Returns the number of runnables waiting to run.
+     */
+    public static int getQueueDepth() {
+        return sQueue.size();
+    }
+
+    private static class ShadowThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }
+            }, "CompatElevation #" + mCount.getAndIncrement());
+        }
+    }
+}
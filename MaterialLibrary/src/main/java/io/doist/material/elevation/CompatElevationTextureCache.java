@@ -0,0 +1,145 @@
+package io.doist.material.elevation;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+/**
+ * Caches the stretchable shadow textures used by {@link CompatElevationDelegate#SHADOW_RENDER_MODE_TEXTURE}.
+ *
+ * Textures don't depend on the size of the drawable, only on its corner radius and shadow parameters, so they are
+ * shared by all drawables with the same {@link Key}. Cached textures must never be modified or pooled.
+ */
+final class CompatElevationTextureCache {
+    private static final int MAX_SIZE_BYTES = 1024 * 1024;
+
+    private static final LruCache<Key, Bitmap> sCache = new LruCache<Key, Bitmap>(MAX_SIZE_BYTES) {
+        @Override
+        protected int sizeOf(Key key, Bitmap value) {
+            return value.getRowBytes() * value.getHeight();
+        }
+    };
+
+    private CompatElevationTextureCache() {
+        throw new InstantiationError("Must not instantiate this class");
+    }
+
+    public static Bitmap get(Key key) {
+        return sCache.get(key);
+    }
+
+    /**
+     * Caches {@code texture}, unless it's larger than the whole cache, in which case it would evict every other texture
+     * and then itself.
+     */
+    public static void put(Key key, Bitmap texture) {
+        if (texture.getRowBytes() * texture.getHeight() <= MAX_SIZE_BYTES) {
+            sCache.put(key, texture);
+        }
+    }
+
+    /**
+     * Drops all cached textures.
+     */
+    public static void clear() {
+        sCache.evictAll();
+    }
+
+    /**
+     * Returns true if the texture identified by {@code key} fits in the cache, as laid out by
+     * {@link CompatElevationUpdateRunnable}.
+     */
+    public static boolean fits(Key key) {
+        int columnSize = Math.max(key.shadowLengthLeft, key.shadowLengthRight) + key.cornerRadius;
+        int rowSize = Math.max(key.shadowLengthTop, key.shadowLengthBottom) + key.cornerRadius;
+        return (long) columnSize * 3 * rowSize * 3 <= MAX_SIZE_BYTES;
+    }
+
+    /**
+     * Identifies a shadow texture. Mutable so that lookups don't allocate, use {@link #copy()} when storing it.
+     */
+    static final class Key {
+        int cornerRadius;
+        int shadowLengthLeft;
+        int shadowLengthTop;
+        int shadowLengthRight;
+        int shadowLengthBottom;
+        float shadowAlphaLeft;
+        float shadowAlphaTop;
+        float shadowAlphaRight;
+        float shadowAlphaBottom;
+        boolean showShadowLeft;
+        boolean showShadowTop;
+        boolean showShadowRight;
+        boolean showShadowBottom;
+
+        public void set(int cornerRadius,
+                        int shadowLengthLeft, int shadowLengthTop, int shadowLengthRight, int shadowLengthBottom,
+                        float shadowAlphaLeft, float shadowAlphaTop, float shadowAlphaRight, float shadowAlphaBottom,
+                        boolean showShadowLeft, boolean showShadowTop,
+                        boolean showShadowRight, boolean showShadowBottom) {
+            this.cornerRadius = cornerRadius;
+            this.shadowLengthLeft = shadowLengthLeft;
+            this.shadowLengthTop = shadowLengthTop;
+            this.shadowLengthRight = shadowLengthRight;
+            this.shadowLengthBottom = shadowLengthBottom;
+            this.shadowAlphaLeft = shadowAlphaLeft;
+            this.shadowAlphaTop = shadowAlphaTop;
+            this.shadowAlphaRight = shadowAlphaRight;
+            this.shadowAlphaBottom = shadowAlphaBottom;
+            this.showShadowLeft = showShadowLeft;
+            this.showShadowTop = showShadowTop;
+            this.showShadowRight = showShadowRight;
+            this.showShadowBottom = showShadowBottom;
+        }
+
+        public Key copy() {
+            Key key = new Key();
+            key.set(cornerRadius, shadowLengthLeft, shadowLengthTop, shadowLengthRight, shadowLengthBottom,
+                    shadowAlphaLeft, shadowAlphaTop, shadowAlphaRight, shadowAlphaBottom,
+                    showShadowLeft, showShadowTop, showShadowRight, showShadowBottom);
+            return key;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return cornerRadius == key.cornerRadius
+                    && shadowLengthLeft == key.shadowLengthLeft
+                    && shadowLengthTop == key.shadowLengthTop
+                    && shadowLengthRight == key.shadowLengthRight
+                    && shadowLengthBottom == key.shadowLengthBottom
+                    && Float.compare(shadowAlphaLeft, key.shadowAlphaLeft) == 0
+                    && Float.compare(shadowAlphaTop, key.shadowAlphaTop) == 0
+                    && Float.compare(shadowAlphaRight, key.shadowAlphaRight) == 0
+                    && Float.compare(shadowAlphaBottom, key.shadowAlphaBottom) == 0
+                    && showShadowLeft == key.showShadowLeft
+                    && showShadowTop == key.showShadowTop
+                    && showShadowRight == key.showShadowRight
+                    && showShadowBottom == key.showShadowBottom;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = cornerRadius;
+            result = 31 * result + shadowLengthLeft;
+            result = 31 * result + shadowLengthTop;
+            result = 31 * result + shadowLengthRight;
+            result = 31 * result + shadowLengthBottom;
+            result = 31 * result + Float.floatToIntBits(shadowAlphaLeft);
+            result = 31 * result + Float.floatToIntBits(shadowAlphaTop);
+            result = 31 * result + Float.floatToIntBits(shadowAlphaRight);
+            result = 31 * result + Float.floatToIntBits(shadowAlphaBottom);
+            result = 31 * result + (showShadowLeft ? 1 : 0);
+            result = 31 * result + (showShadowTop ? 1 : 0);
+            result = 31 * result + (showShadowRight ? 1 : 0);
+            result = 31 * result + (showShadowBottom ? 1 : 0);
+            return result;
+        }
+    }
+}
@@ -9,15 +9,29 @@ import android.graphics.Path;
 import android.graphics.RadialGradient;
 import android.graphics.RectF;
 import android.graphics.Shader;
+import android.os.Looper;
+import androidx.core.os.TraceCompat;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
 
 /**
- * Creates {@link Shader} for drawing the edges of the shadow and {@link Bitmap} for drawing the corners.
+ * Creates {@link Shader} for drawing the edges of the shadow and {@link Bitmap} for drawing the corners, or the
+ * {@link CompatElevationOutlineMask} of an outline.
  *
- * A {@link ShadowUpdateListener} is needed to obtain the result data.
+ * A {@link ShadowUpdateListener} is needed to obtain the result data. It is always called on the main thread, even
+ * when the runnable runs in the background, in which case results are batched by
+ * {@link CompatElevationCommitScheduler}.
+ *
+ * Instances are pooled: get one through {@link #obtain}, and {@link #recycle()} it once its results are consumed or
+ * if it's cancelled before running. Runnables delivered to no listener are recycled automatically.
  */
 class CompatElevationUpdateRunnable implements Runnable {
+    private static final int MAX_POOL_SIZE = 16;
+    private static final ArrayList<CompatElevationUpdateRunnable> sPool = new ArrayList<>(MAX_POOL_SIZE);
+
+    private int mGeneration;
+
     private int mLeft;
     private int mTop;
     private int mRight;
@@ -40,41 +54,43 @@ class CompatElevationUpdateRunnable implements Runnable {
     private boolean mDirtyRight;
     private boolean mDirtyBottom;
 
+    // Non-null when rendering a single stretchable texture instead of separate edges and corners.
+    private CompatElevationTextureCache.Key mTextureKey;
+
+    // Non-null when rendering the blurred mask of an outline instead, sized as the bounds.
+    private CompatElevationOutline mOutline;
+    private int mBlurRadius;
+
     private WeakReference<ShadowUpdateListener> mListenerRef;
 
-    // Temporary variables reused while drawing each slice of each corner.
+    // When it was submitted to run in the background, if metrics are enabled.
+    private long mSubmitTimeNanos;
+
+    // Results.
+    Shader mEdgeShaderLeft;
+    Shader mEdgeShaderTop;
+    Shader mEdgeShaderRight;
+    Shader mEdgeShaderBottom;
+    Bitmap mCornerBitmapTopLeft;
+    Bitmap mCornerBitmapTopRight;
+    Bitmap mCornerBitmapBottomRight;
+    Bitmap mCornerBitmapBottomLeft;
+    Bitmap mTexture;
+    CompatElevationOutlineMask mOutlineMask;
+
+    // Temporary variables reused while drawing each slice of each corner, and the texture.
+    private Canvas mTmpCanvas;
+    private Paint mTmpTexturePaint;
     private Path mTmpCornerSlicePath;
     private Paint mTmpCornerSlicePaint;
     private RectF mTmpCornerSliceRectF;
     private int[] mTmpCornerColors = new int[]{Color.TRANSPARENT, Color.TRANSPARENT, -1, Color.TRANSPARENT};
     private float[] mTmpCornerStops = new float[]{0f, -1, -1, 1f};
 
-    public CompatElevationUpdateRunnable(int left, int top, int right, int bottom, float cornerRadius,
-                                         int shadowLengthLeft, int shadowLengthTop,
-                                         int shadowLengthRight, int shadowLengthBottom,
-                                         float shadowAlphaLeft, float shadowAlphaTop,
-                                         float shadowAlphaRight, float shadowAlphaBottom,
-                                         boolean dirtyLeft, boolean dirtyTop, boolean dirtyRight, boolean dirtyBottom,
-                                         ShadowUpdateListener listener) {
-        mLeft = left;
-        mTop = top;
-        mRight = right;
-        mBottom = bottom;
-        mCornerRadius = cornerRadius;
-        mShadowLengthLeft = shadowLengthLeft;
-        mShadowLengthTop = shadowLengthTop;
-        mShadowLengthRight = shadowLengthRight;
-        mShadowLengthBottom = shadowLengthBottom;
-        mShadowAlphaLeft = shadowAlphaLeft;
-        mShadowAlphaTop = shadowAlphaTop;
-        mShadowAlphaRight = shadowAlphaRight;
-        mShadowAlphaBottom = shadowAlphaBottom;
-        mDirtyLeft = dirtyLeft;
-        mDirtyTop = dirtyTop;
-        mDirtyRight = dirtyRight;
-        mDirtyBottom = dirtyBottom;
-        mListenerRef = new WeakReference<>(listener);
-
+    private CompatElevationUpdateRunnable() {
+        mTmpCanvas = new Canvas();
+        mTmpTexturePaint = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.DITHER_FLAG);
+        mTmpTexturePaint.setStyle(Paint.Style.FILL);
         mTmpCornerSlicePath = new Path();
         mTmpCornerSlicePath.setFillType(Path.FillType.EVEN_ODD);
         mTmpCornerSlicePaint = new Paint();
@@ -83,12 +99,188 @@ class CompatElevationUpdateRunnable implements Runnable {
         mTmpCornerSliceRectF = new RectF();
     }
 
+    /**
+     * Returns a runnable from the pool, or a new one if it's empty, set up with the given parameters.
+     */
+    public static CompatElevationUpdateRunnable obtain(int generation, int left, int top, int right, int bottom,
+                                                       float cornerRadius,
+                                                       int shadowLengthLeft, int shadowLengthTop,
+                                                       int shadowLengthRight, int shadowLengthBottom,
+                                                       float shadowAlphaLeft, float shadowAlphaTop,
+                                                       float shadowAlphaRight, float shadowAlphaBottom,
+                                                       boolean dirtyLeft, boolean dirtyTop,
+                                                       boolean dirtyRight, boolean dirtyBottom,
+                                                       CompatElevationTextureCache.Key textureKey,
+                                                       ShadowUpdateListener listener) {
+        CompatElevationUpdateRunnable runnable = null;
+        synchronized (sPool) {
+            if (!sPool.isEmpty()) {
+                runnable = sPool.remove(sPool.size() - 1);
+            }
+        }
+        if (runnable == null) {
+            runnable = new CompatElevationUpdateRunnable();
+        }
+
+        runnable.mGeneration = generation;
+        runnable.mLeft = left;
+        runnable.mTop = top;
+        runnable.mRight = right;
+        runnable.mBottom = bottom;
+        runnable.mCornerRadius = cornerRadius;
+        runnable.mShadowLengthLeft = shadowLengthLeft;
+        runnable.mShadowLengthTop = shadowLengthTop;
+        runnable.mShadowLengthRight = shadowLengthRight;
+        runnable.mShadowLengthBottom = shadowLengthBottom;
+        runnable.mShadowAlphaLeft = shadowAlphaLeft;
+        runnable.mShadowAlphaTop = shadowAlphaTop;
+        runnable.mShadowAlphaRight = shadowAlphaRight;
+        runnable.mShadowAlphaBottom = shadowAlphaBottom;
+        runnable.mDirtyLeft = dirtyLeft;
+        runnable.mDirtyTop = dirtyTop;
+        runnable.mDirtyRight = dirtyRight;
+        runnable.mDirtyBottom = dirtyBottom;
+        runnable.mTextureKey = textureKey;
+        // Most runnables are reused by the same drawable.
+        if (runnable.mListenerRef == null || runnable.mListenerRef.get() != listener) {
+            runnable.mListenerRef = new WeakReference<>(listener);
+        }
+        runnable.mSubmitTimeNanos = 0;
+        return runnable;
+    }
+
+    /**
+     * Returns a runnable from the pool, or a new one if it's empty, set up to render the mask of {@code outline} sized
+     * {@code width} by {@code height} and blurred by {@code blurRadius}.
+     */
+    public static CompatElevationUpdateRunnable obtainOutlineMask(int generation, CompatElevationOutline outline,
+                                                                  int width, int height, int blurRadius,
+                                                                  ShadowUpdateListener listener) {
+        CompatElevationUpdateRunnable runnable = obtain(generation, 0, 0, width, height, 0f, 0, 0, 0, 0,
+                                                        0f, 0f, 0f, 0f, false, false, false, false, null, listener);
+        runnable.mOutline = outline;
+        runnable.mBlurRadius = blurRadius;
+        return runnable;
+    }
+
+    /**
+     * Clears the results and returns this runnable to the pool. It must not be used by the caller afterwards.
+     */
+    public void recycle() {
+        mTextureKey = null;
+        mOutline = null;
+        mOutlineMask = null;
+        mEdgeShaderLeft = null;
+        mEdgeShaderTop = null;
+        mEdgeShaderRight = null;
+        mEdgeShaderBottom = null;
+        mCornerBitmapTopLeft = null;
+        mCornerBitmapTopRight = null;
+        mCornerBitmapBottomRight = null;
+        mCornerBitmapBottomLeft = null;
+        mTexture = null;
+        mTmpCornerSlicePaint.setShader(null);
+        mTmpTexturePaint.setShader(null);
+
+        synchronized (sPool) {
+            if (sPool.size() < MAX_POOL_SIZE && !sPool.contains(this)) {
+                sPool.add(this);
+            }
+        }
+    }
+
+    public int getGeneration() {
+        return mGeneration;
+    }
+
+    public int getShadowLengthLeft() {
+        return mShadowLengthLeft;
+    }
+
+    public int getShadowLengthTop() {
+        return mShadowLengthTop;
+    }
+
+    public int getShadowLengthRight() {
+        return mShadowLengthRight;
+    }
+
+    public int getShadowLengthBottom() {
+        return mShadowLengthBottom;
+    }
+
+    public boolean isDirtyLeft() {
+        return mDirtyLeft;
+    }
+
+    public boolean isDirtyTop() {
+        return mDirtyTop;
+    }
+
+    public boolean isDirtyRight() {
+        return mDirtyRight;
+    }
+
+    public boolean isDirtyBottom() {
+        return mDirtyBottom;
+    }
+
+    public CompatElevationTextureCache.Key getTextureKey() {
+        return mTextureKey;
+    }
+
+    public CompatElevationOutline getOutline() {
+        return mOutline;
+    }
+
+    /**
+     * Returns true if this runnable renders the mask of {@code outline} with the given size and blur radius.
+     */
+    public boolean isOutlineMask(CompatElevationOutline outline, int width, int height, int blurRadius) {
+        return mOutline != null && mOutline == outline && mRight - mLeft == width && mBottom - mTop == height
+                && mBlurRadius == blurRadius;
+    }
+
+    void setSubmitTimeNanos(long submitTimeNanos) {
+        mSubmitTimeNanos = submitTimeNanos;
+    }
+
     /**
      * Updates edge paints and corner bitmaps for the current state and given the dirty flags, and calls back the
-     * {@link ShadowUpdateListener} when done.
+     * {@link ShadowUpdateListener} on the main thread when done.
      */
     @Override
     public void run() {
+        boolean async = Looper.myLooper() != Looper.getMainLooper();
+        long startTimeNanos = System.nanoTime();
+        TraceCompat.beginSection(mOutline != null ? "CompatElevation.renderOutline"
+                                                  : mTextureKey != null ? "CompatElevation.renderTexture"
+                                                                        : "CompatElevation.update");
+        try {
+            if (mOutline != null) {
+                mOutlineMask = CompatElevationOutlineMask.create(mOutline, mRight - mLeft, mBottom - mTop,
+                                                                 mBlurRadius);
+            } else {
+                update();
+            }
+        } finally {
+            TraceCompat.endSection();
+        }
+        CompatElevationMetrics.recordRun(async, System.nanoTime() - startTimeNanos,
+                                         mSubmitTimeNanos > 0 ? startTimeNanos - mSubmitTimeNanos : 0);
+
+        // Propagate the update to the callback, on the main thread in the next frame.
+        if (async) {
+            CompatElevationCommitScheduler.post(this);
+        } else {
+            deliver();
+        }
+    }
+
+    /**
+     * Builds the edge shaders and corner bitmaps of the dirty sides, baking them into a texture if needed.
+     */
+    private void update() {
         int width = mRight - mLeft;
         int height = mBottom - mTop;
 
@@ -121,49 +313,161 @@ class CompatElevationUpdateRunnable implements Runnable {
 
         // Build corner gradients (1 per slice) and draw them. Each corner bitmap is an alpha mask.
         // Drawing all paths with their respective paints directly is very expensive as there can be a lot of paths.
-        Canvas canvas = new Canvas();
+        Canvas canvas = mTmpCanvas;
         if (mDirtyLeft || mDirtyTop) {
-            cornerBitmapTopLeft = Bitmap.createBitmap(Math.round(mShadowLengthLeft + mCornerRadius),
-                                                      Math.round(mShadowLengthTop + mCornerRadius),
-                                                      Bitmap.Config.ALPHA_8);
-            canvas.setBitmap(cornerBitmapTopLeft);
-            drawCorner(canvas, mCornerRadius + mShadowLengthLeft, mCornerRadius + mShadowLengthTop,
-                       mShadowLengthLeft, mShadowLengthTop, mShadowAlphaLeft, mShadowAlphaTop, 180f);
+            cornerBitmapTopLeft = renderCorner(
+                    canvas, Math.round(mShadowLengthLeft + mCornerRadius), Math.round(mShadowLengthTop + mCornerRadius),
+                    mCornerRadius + mShadowLengthLeft, mCornerRadius + mShadowLengthTop,
+                    mShadowLengthLeft, mShadowLengthTop, mShadowAlphaLeft, mShadowAlphaTop, 180f);
         }
         if (mDirtyTop || mDirtyRight) {
-            cornerBitmapTopRight = Bitmap.createBitmap(Math.round(mShadowLengthRight + mCornerRadius),
-                                                       Math.round(mShadowLengthTop + mCornerRadius),
-                                                       Bitmap.Config.ALPHA_8);
-            canvas.setBitmap(cornerBitmapTopRight);
-            drawCorner(canvas, 0,  mShadowLengthTop + mCornerRadius,
-                       mShadowLengthTop, mShadowLengthRight, mShadowAlphaTop, mShadowAlphaRight, -90f);
+            cornerBitmapTopRight = renderCorner(
+                    canvas, Math.round(mShadowLengthRight + mCornerRadius),
+                    Math.round(mShadowLengthTop + mCornerRadius),
+                    0, mShadowLengthTop + mCornerRadius,
+                    mShadowLengthTop, mShadowLengthRight, mShadowAlphaTop, mShadowAlphaRight, -90f);
         }
         if (mDirtyRight || mDirtyBottom) {
-            cornerBitmapBottomRight = Bitmap.createBitmap(Math.round(mShadowLengthRight + mCornerRadius),
-                                                          Math.round(mShadowLengthBottom + mCornerRadius),
-                                                          Bitmap.Config.ALPHA_8);
-            canvas.setBitmap(cornerBitmapBottomRight);
-            drawCorner(canvas, 0, 0,
-                       mShadowLengthRight, mShadowLengthBottom, mShadowAlphaRight, mShadowAlphaBottom, 0f);
+            cornerBitmapBottomRight = renderCorner(
+                    canvas, Math.round(mShadowLengthRight + mCornerRadius),
+                    Math.round(mShadowLengthBottom + mCornerRadius),
+                    0, 0,
+                    mShadowLengthRight, mShadowLengthBottom, mShadowAlphaRight, mShadowAlphaBottom, 0f);
         }
         if (mDirtyBottom || mDirtyLeft) {
-            cornerBitmapBottomLeft = Bitmap.createBitmap(Math.round(mShadowLengthLeft + mCornerRadius),
-                                                         Math.round(mShadowLengthBottom + mCornerRadius),
-                                                         Bitmap.Config.ALPHA_8);
-            canvas.setBitmap(cornerBitmapBottomLeft);
-            drawCorner(canvas, mCornerRadius + mShadowLengthLeft, 0,
-                       mShadowLengthBottom, mShadowLengthLeft, mShadowAlphaBottom, mShadowAlphaLeft, 90f);
+            cornerBitmapBottomLeft = renderCorner(
+                    canvas, Math.round(mShadowLengthLeft + mCornerRadius),
+                    Math.round(mShadowLengthBottom + mCornerRadius),
+                    mCornerRadius + mShadowLengthLeft, 0,
+                    mShadowLengthBottom, mShadowLengthLeft, mShadowAlphaBottom, mShadowAlphaLeft, 90f);
+        }
+
+        if (mTextureKey != null) {
+            mTexture = renderTexture(canvas, width, height,
+                                     edgeShaderLeft, edgeShaderTop, edgeShaderRight, edgeShaderBottom,
+                                     cornerBitmapTopLeft, cornerBitmapTopRight,
+                                     cornerBitmapBottomRight, cornerBitmapBottomLeft);
+            // Textures are shared, cache them even if this update ends up superseded.
+            CompatElevationTextureCache.put(mTextureKey, mTexture);
+
+            // Everything is baked into the texture.
+            CompatElevationBitmapPool.release(cornerBitmapTopLeft);
+            CompatElevationBitmapPool.release(cornerBitmapTopRight);
+            CompatElevationBitmapPool.release(cornerBitmapBottomRight);
+            CompatElevationBitmapPool.release(cornerBitmapBottomLeft);
+            edgeShaderLeft = edgeShaderTop = edgeShaderRight = edgeShaderBottom = null;
+            cornerBitmapTopLeft = cornerBitmapTopRight = cornerBitmapBottomRight = cornerBitmapBottomLeft = null;
         }
 
-        // Propagate the update to the callback.
+        mEdgeShaderLeft = edgeShaderLeft;
+        mEdgeShaderTop = edgeShaderTop;
+        mEdgeShaderRight = edgeShaderRight;
+        mEdgeShaderBottom = edgeShaderBottom;
+        mCornerBitmapTopLeft = cornerBitmapTopLeft;
+        mCornerBitmapTopRight = cornerBitmapTopRight;
+        mCornerBitmapBottomRight = cornerBitmapBottomRight;
+        mCornerBitmapBottomLeft = cornerBitmapBottomLeft;
+
+        // Don't keep a reference to the last bitmap.
+        canvas.setBitmap(null);
+    }
+
+    /**
+     * Calls back the {@link ShadowUpdateListener} with the results. Main thread only.
+     */
+    void deliver() {
         ShadowUpdateListener listener = mListenerRef.get();
         if (listener != null) {
-            listener.onShadowUpdate(mShadowLengthLeft, mShadowLengthTop, mShadowLengthRight, mShadowLengthBottom,
-                                    mDirtyLeft, mDirtyTop, mDirtyRight, mDirtyBottom,
-                                    edgeShaderLeft, edgeShaderTop, edgeShaderRight, edgeShaderBottom,
-                                    cornerBitmapTopLeft, cornerBitmapTopRight,
-                                    cornerBitmapBottomRight, cornerBitmapBottomLeft);
+            listener.onShadowUpdate(this);
+        } else {
+            releaseBitmaps();
+            recycle();
+        }
+    }
+
+    /**
+     * Returns the corner bitmaps to the {@link CompatElevationBitmapPool}, for results that will never be drawn.
+     */
+    public void releaseBitmaps() {
+        CompatElevationBitmapPool.release(mCornerBitmapTopLeft);
+        CompatElevationBitmapPool.release(mCornerBitmapTopRight);
+        CompatElevationBitmapPool.release(mCornerBitmapBottomRight);
+        CompatElevationBitmapPool.release(mCornerBitmapBottomLeft);
+        mCornerBitmapTopLeft = null;
+        mCornerBitmapTopRight = null;
+        mCornerBitmapBottomRight = null;
+        mCornerBitmapBottomLeft = null;
+    }
+
+    /**
+     * Renders the edges and corners into a single texture made of three equally sized columns and rows, so that it
+     * can be drawn with {@link Canvas#drawBitmapMesh}, whose texture coordinates are evenly distributed.
+     *
+     * The left and top columns / rows hold the respective shadows, right / bottom aligned, ending at the corner radius.
+     * The middle column and row are constant along the stretched axis. The right and bottom ones mirror the first.
+     * Only sides flagged as dirty are rendered, and a corner only if both its sides are.
+     */
+    private Bitmap renderTexture(Canvas canvas, int width, int height,
+                                 Shader edgeShaderLeft, Shader edgeShaderTop,
+                                 Shader edgeShaderRight, Shader edgeShaderBottom,
+                                 Bitmap cornerBitmapTopLeft, Bitmap cornerBitmapTopRight,
+                                 Bitmap cornerBitmapBottomRight, Bitmap cornerBitmapBottomLeft) {
+        int cornerRadius = (int) mCornerRadius;
+        int columnSize = Math.max(mShadowLengthLeft, mShadowLengthRight) + cornerRadius;
+        int rowSize = Math.max(mShadowLengthTop, mShadowLengthBottom) + cornerRadius;
+
+        Bitmap texture = Bitmap.createBitmap(Math.max(1, columnSize * 3), Math.max(1, rowSize * 3),
+                                             Bitmap.Config.ALPHA_8);
+        CompatElevationMetrics.recordBitmapAllocation(texture.getRowBytes() * texture.getHeight());
+        canvas.setBitmap(texture);
+        int count = canvas.save();
+        canvas.translate(columnSize - mShadowLengthLeft - cornerRadius, rowSize - mShadowLengthTop - cornerRadius);
+
+        Paint paint = mTmpTexturePaint;
+
+        // Edges, laid out like in CompatElevationDrawable.
+        if (mDirtyLeft) {
+            paint.setShader(edgeShaderLeft);
+            canvas.drawRect(0, mShadowLengthTop + cornerRadius,
+                            mShadowLengthLeft, mShadowLengthTop + height - cornerRadius, paint);
+        }
+        if (mDirtyTop) {
+            paint.setShader(edgeShaderTop);
+            canvas.drawRect(mShadowLengthLeft + cornerRadius, 0,
+                            mShadowLengthLeft + width - cornerRadius, mShadowLengthTop, paint);
         }
+        if (mDirtyRight) {
+            paint.setShader(edgeShaderRight);
+            canvas.drawRect(mShadowLengthLeft + width, mShadowLengthTop + cornerRadius,
+                            mShadowLengthLeft + width + mShadowLengthRight, mShadowLengthTop + height - cornerRadius,
+                            paint);
+        }
+        if (mDirtyBottom) {
+            paint.setShader(edgeShaderBottom);
+            canvas.drawRect(mShadowLengthLeft + cornerRadius, mShadowLengthTop + height,
+                            mShadowLengthLeft + width - cornerRadius, mShadowLengthTop + height + mShadowLengthBottom,
+                            paint);
+        }
+
+        // Corners.
+        paint.setShader(null);
+        if (mDirtyLeft && mDirtyTop) {
+            canvas.drawBitmap(cornerBitmapTopLeft, 0, 0, paint);
+        }
+        if (mDirtyTop && mDirtyRight) {
+            canvas.drawBitmap(cornerBitmapTopRight, mShadowLengthLeft + width - cornerRadius, 0, paint);
+        }
+        if (mDirtyRight && mDirtyBottom) {
+            canvas.drawBitmap(cornerBitmapBottomRight,
+                              mShadowLengthLeft + width - cornerRadius, mShadowLengthTop + height - cornerRadius,
+                              paint);
+        }
+        if (mDirtyBottom && mDirtyLeft) {
+            canvas.drawBitmap(cornerBitmapBottomLeft, 0, mShadowLengthTop + height - cornerRadius, paint);
+        }
+
+        canvas.restoreToCount(count);
+        return texture;
     }
 
     /**
@@ -176,6 +480,24 @@ class CompatElevationUpdateRunnable implements Runnable {
                                   Shader.TileMode.CLAMP);
     }
 
+    /**
+     * Renders a corner of {@code width} x {@code height} into a pooled bitmap, see {@link #drawCorner}. Pooled bitmaps
+     * are rounded up in size, so the corner is clipped to its size to leave the rest of the bitmap transparent.
+     */
+    private Bitmap renderCorner(Canvas canvas, int width, int height, float centerX, float centerY,
+                                float startShadowLength, float endShadowLength,
+                                float startShadowAlpha, float endShadowAlpha,
+                                float startAngle) {
+        Bitmap bitmap = CompatElevationBitmapPool.acquire(width, height);
+        canvas.setBitmap(bitmap);
+        int count = canvas.save();
+        canvas.clipRect(0, 0, width, height);
+        drawCorner(canvas, centerX, centerY, startShadowLength, endShadowLength, startShadowAlpha, endShadowAlpha,
+                   startAngle);
+        canvas.restoreToCount(count);
+        return bitmap;
+    }
+
     /**
      * Draw a corner in the given {@link Canvas} using multiple slices to accommodate for different start / end
      * sizes. Each slice has its own {@link RadialGradient} to cross-fade between the start / end colors.
@@ -228,14 +550,10 @@ class CompatElevationUpdateRunnable implements Runnable {
     }
 
     /**
-     * Listen for shadow updates following {@link CompatElevationUpdateRunnable} runs.
+     * Listen for shadow updates following {@link CompatElevationUpdateRunnable} runs. Called on the main thread.
+     * Implementations must {@link #recycle()} the update once done with it.
      */
     public interface ShadowUpdateListener {
-        void onShadowUpdate(int shadowLeftLength, int shadowTopLength, int shadowRightLength, int shadowBottomLength,
-                            boolean leftDirty, boolean topDirty, boolean rightDirty, boolean bottomDirty,
-                            Shader leftEdgeShader, Shader topEdgeShader,
-                            Shader rightEdgeShader, Shader bottomEdgeShader,
-                            Bitmap topLeftCornerBitmap, Bitmap topRightCornerBitmap,
-                            Bitmap bottomRightCornerBitmap, Bitmap bottomLeftCornerBitmap);
+        void onShadowUpdate(CompatElevationUpdateRunnable update);
     }
 }
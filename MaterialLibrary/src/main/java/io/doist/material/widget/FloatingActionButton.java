@@ -249,4 +249,13 @@ public class FloatingActionButton extends ImageButton {
             mCompatElevationDelegate.onDetachedFromWindow();
         }
     }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+
+        if (mCompatElevationDelegate != null) {
+            mCompatElevationDelegate.onWindowVisibilityChanged(visibility);
+        }
+    }
 }
@@ -0,0 +1,84 @@
+package io.doist.material.color;
+
+import android.content.res.ColorStateList;
+import android.graphics.Color;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+public class CompiledColorStateListTest {
+    // In the order of the CompiledColorStateList.STATE_ flags.
+    private static final int[] STATES = new int[]{
+            android.R.attr.state_pressed,
+            android.R.attr.state_focused,
+            android.R.attr.state_checked,
+            android.R.attr.state_enabled,
+            android.R.attr.state_selected,
+            android.R.attr.state_activated};
+
+    @Test
+    public void lookupMatchesGetColorForStateForEveryMask() {
+        ColorStateList colorStateList = new ColorStateList(
+                new int[][]{
+                        new int[]{-android.R.attr.state_enabled},
+                        new int[]{android.R.attr.state_pressed},
+                        new int[]{android.R.attr.state_checked, android.R.attr.state_focused},
+                        new int[]{android.R.attr.state_selected, -android.R.attr.state_activated},
+                        new int[]{android.R.attr.state_activated},
+                        new int[]{}},
+                new int[]{Color.GRAY, Color.RED, Color.GREEN, Color.BLUE, Color.YELLOW, Color.BLACK});
+        CompiledColorStateList compiled = CompiledColorStateList.get(colorStateList);
+        assertNotNull(compiled);
+
+        for (int mask = 0; mask < 1 << STATES.length; mask++) {
+            int[] stateSet = getStateSet(mask);
+            assertEquals(mask, CompiledColorStateList.getStateMask(stateSet));
+            assertEquals("mask " + mask,
+                         colorStateList.getColorForState(stateSet, colorStateList.getDefaultColor()),
+                         compiled.getColorForStateMask(CompiledColorStateList.getStateMask(stateSet)));
+        }
+    }
+
+    @Test
+    public void unsupportedStatesAreIgnoredInStateSets() {
+        int[] stateSet = new int[]{android.R.attr.state_pressed, android.R.attr.state_hovered};
+
+        assertEquals(CompiledColorStateList.STATE_PRESSED, CompiledColorStateList.getStateMask(stateSet));
+        assertEquals(0, CompiledColorStateList.getStateMask(null));
+    }
+
+    @Test
+    public void listsUsingUnsupportedStatesAreNotCompiled() {
+        ColorStateList colorStateList = new ColorStateList(
+                new int[][]{new int[]{android.R.attr.state_hovered}, new int[]{}},
+                new int[]{Color.RED, Color.BLACK});
+
+        assertNull(CompiledColorStateList.get(colorStateList));
+        assertNull(CompiledColorStateList.get(null));
+    }
+
+    @Test
+    public void compiledListsAreCached() {
+        ColorStateList colorStateList = ColorStateList.valueOf(Color.RED);
+
+        assertSame(CompiledColorStateList.get(colorStateList), CompiledColorStateList.get(colorStateList));
+    }
+
+    private static int[] getStateSet(int mask) {
+        int[] stateSet = new int[Integer.bitCount(mask)];
+        int size = 0;
+        for (int i = 0; i < STATES.length; i++) {
+            if ((mask & (1 << i)) != 0) {
+                stateSet[size++] = STATES[i];
+            }
+        }
+        return stateSet;
+    }
+}
@@ -0,0 +1,153 @@
+package io.doist.material.drawable;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.drawable.AnimationDrawable;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.lang.ref.WeakReference;
+
+import androidx.test.core.app.ApplicationProvider;
+import io.doist.material.R;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+@RunWith(RobolectricTestRunner.class)
+public class LazyFrameDrawableTest {
+    private static final int FRAME_RES = R.drawable.btn_check_to_on_mtrl_000;
+    private static final int FRAME_COUNT = 6;
+
+    private Context mContext;
+    private LazyFrameDrawable.Loader mLoader;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mLoader = new LazyFrameDrawable.Loader(mContext, mContext.getResources());
+    }
+
+    @Test
+    public void drawLoadsFramesNotPrefetched() {
+        LazyFrameDrawable frame = createFrame();
+
+        frame.draw(new Canvas());
+
+        assertTrue(frame.isLoaded());
+    }
+
+    @Test
+    public void drawDoesNotLoadFramesBeingPrefetched() throws InterruptedException {
+        LazyFrameDrawable frame = createFrame();
+        frame.prefetch();
+
+        // Loaded frames are delivered on the main thread, which is paused.
+        frame.draw(new Canvas());
+        assertFalse(frame.isLoaded());
+        assertTrue(frame.isLoading());
+
+        awaitLoaded(frame);
+        assertFalse(frame.isLoading());
+    }
+
+    @Test
+    public void releaseDiscardsThePendingLoad() throws InterruptedException {
+        LazyFrameDrawable frame = createFrame();
+        LazyFrameDrawable other = createFrame();
+        frame.prefetch();
+
+        frame.release();
+        assertFalse(frame.isLoading());
+
+        // Loads are delivered in order, so the released frame's load was delivered before.
+        other.prefetch();
+        awaitLoaded(other);
+        assertFalse(frame.isLoaded());
+    }
+
+    @Test
+    public void onlyFramesOutsideOfAWindowReleaseThemselvesWhenHidden() {
+        LazyFrameDrawable frame = createFrame();
+        LazyFrameDrawable windowedFrame = createFrame();
+        windowedFrame.setWindowed(true);
+        frame.ensureLoaded();
+        windowedFrame.ensureLoaded();
+
+        frame.setVisible(false, false);
+        windowedFrame.setVisible(false, false);
+
+        assertFalse(frame.isLoaded());
+        assertTrue(windowedFrame.isLoaded());
+    }
+
+    @Test
+    public void animationsPrefetchTheFramesAheadAndReleaseTheOthers() {
+        AnimationMaterialDrawable drawable = createAnimation();
+        assertTrue(getFrame(drawable, 0).isLoaded());
+        for (int i = 1; i <= 3; i++) {
+            assertTrue(getFrame(drawable, i).isLoading());
+        }
+        for (int i = 4; i < FRAME_COUNT; i++) {
+            assertFalse(getFrame(drawable, i).isLoading());
+            assertFalse(getFrame(drawable, i).isLoaded());
+        }
+
+        drawable.selectDrawable(4);
+
+        // Frames 4, 5, 0 and 1 are in the window, frame 3 is the previous one.
+        assertTrue(getFrame(drawable, 0).isLoaded());
+        assertTrue(getFrame(drawable, 1).isLoading());
+        assertFalse(getFrame(drawable, 2).isLoading());
+        assertTrue(getFrame(drawable, 3).isLoading());
+        assertTrue(getFrame(drawable, 4).isLoading());
+        assertTrue(getFrame(drawable, 5).isLoading());
+    }
+
+    @Test
+    public void animationsDoNotLoadTheCurrentFrameBeingPrefetched() throws InterruptedException {
+        AnimationMaterialDrawable drawable = createAnimation();
+        drawable.setBounds(0, 0, 100, 100);
+        drawable.selectDrawable(1);
+
+        drawable.draw(new Canvas());
+        assertFalse(getFrame(drawable, 1).isLoaded());
+        assertTrue(getFrame(drawable, 0).isLoaded());
+
+        awaitLoaded(getFrame(drawable, 1));
+    }
+
+    private LazyFrameDrawable createFrame() {
+        return new LazyFrameDrawable(mLoader, FRAME_RES, true);
+    }
+
+    private AnimationMaterialDrawable createAnimation() {
+        AnimationDrawable source = new AnimationDrawable();
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            source.addFrame(createFrame(), 10);
+        }
+        AnimationMaterialDrawable.AnimationMaterialState state = new AnimationMaterialDrawable.AnimationMaterialState(
+                source.getConstantState(), new WeakReference<>(mContext), true);
+        return (AnimationMaterialDrawable) state.newDrawable();
+    }
+
+    private static LazyFrameDrawable getFrame(AnimationMaterialDrawable drawable, int index) {
+        return (LazyFrameDrawable) drawable.getFrame(index);
+    }
+
+    /**
+     * Delivers the frames decoded in the background, until {@code frame} is loaded.
+     */
+    private static void awaitLoaded(LazyFrameDrawable frame) throws InterruptedException {
+        for (int i = 0; i < 500 && !frame.isLoaded(); i++) {
+            Thread.sleep(10);
+            shadowOf(Looper.getMainLooper()).idle();
+        }
+        assertTrue(frame.isLoaded());
+    }
+}
@@ -0,0 +1,110 @@
+package io.doist.material.drawable;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.graphics.Color;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class RippleMaterialDrawableTest {
+    private static final long MILLIS = 1000000L;
+
+    private RippleMaterialDrawable mRipple;
+    // Frame times are on the same clock as System.nanoTime(), used when an animation is interrupted.
+    private long mStartTimeNanos;
+
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        mRipple = new RippleMaterialDrawable(context, ColorStateList.valueOf(Color.RED),
+                                             new ColorDrawable(Color.WHITE), null);
+        mRipple.setBounds(0, 0, 100, 100);
+        mRipple.mAnimationDuration = 100;
+        mStartTimeNanos = System.nanoTime();
+    }
+
+    @Test
+    public void pressFadesInDecelerating() {
+        mRipple.setState(new int[]{android.R.attr.state_pressed});
+
+        assertTrue(mRipple.doAnimationFrame(mStartTimeNanos));
+        assertRippleAlpha(0);
+
+        // Decelerated halfway: 1 - (1 - 0.5)^2.
+        assertTrue(mRipple.doAnimationFrame(mStartTimeNanos + 50 * MILLIS));
+        assertRippleAlpha((int) (255 * 0.75f));
+
+        assertFalse(mRipple.doAnimationFrame(mStartTimeNanos + 100 * MILLIS));
+        assertRippleAlpha(255);
+    }
+
+    @Test
+    public void focusFadesInToThePeakAlpha() {
+        mRipple.setState(new int[]{android.R.attr.state_focused});
+
+        assertTrue(mRipple.doAnimationFrame(mStartTimeNanos));
+        assertFalse(mRipple.doAnimationFrame(mStartTimeNanos + 100 * MILLIS));
+        assertRippleAlpha(160);
+    }
+
+    @Test
+    public void releaseFadesOutFromTheMiddleOfTheCurve() {
+        mRipple.setState(new int[]{android.R.attr.state_pressed});
+        mRipple.doAnimationFrame(mStartTimeNanos);
+        mRipple.doAnimationFrame(mStartTimeNanos + 100 * MILLIS);
+
+        long hideTimeNanos = mStartTimeNanos + 200 * MILLIS;
+        mRipple.setState(new int[]{});
+
+        // Starts halfway: 160 * (1 - 0.75) * 2.
+        assertTrue(mRipple.doAnimationFrame(hideTimeNanos));
+        assertRippleAlpha(80);
+
+        // Three quarters: 160 * (1 - 0.9375) * 2.
+        assertTrue(mRipple.doAnimationFrame(hideTimeNanos + 25 * MILLIS));
+        assertRippleAlpha(20);
+
+        assertFalse(mRipple.doAnimationFrame(hideTimeNanos + 50 * MILLIS));
+        assertRippleAlpha(0);
+    }
+
+    @Test
+    public void expandingRippleAnimatesLikeTheFade() {
+        mRipple.setExpandingRippleEnabled(true);
+        mRipple.setState(new int[]{android.R.attr.state_pressed});
+
+        assertTrue(mRipple.doAnimationFrame(mStartTimeNanos));
+        assertTrue(mRipple.doAnimationFrame(mStartTimeNanos + 50 * MILLIS));
+        assertRippleAlpha((int) (255 * 0.75f));
+
+        mRipple.setState(new int[]{});
+
+        long frameTimeNanos = mStartTimeNanos + 50 * MILLIS;
+        boolean running = true;
+        while (running) {
+            frameTimeNanos += 16 * MILLIS;
+            running = mRipple.doAnimationFrame(frameTimeNanos);
+        }
+        assertRippleAlpha(0);
+    }
+
+    /**
+     * Asserts the alpha of the ripple layer, which the tint scales by the alpha of the wrapped color.
+     */
+    private void assertRippleAlpha(int alpha) {
+        Drawable rippleDrawable = mRipple.getDrawable(mRipple.getNumberOfLayers() - 1);
+        assertEquals(255 * alpha >> 8, rippleDrawable.getAlpha());
+    }
+}
@@ -0,0 +1,135 @@
+package io.doist.material.drawable;
+
+import android.content.Context;
+import android.graphics.Color;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+public class StateListMaterialDrawableTest {
+    private static final int[] PRESSED = new int[]{android.R.attr.state_pressed};
+    private static final int[] FOCUSED = new int[]{android.R.attr.state_focused};
+    private static final int[] PRESSED_FOCUSED = new int[]{android.R.attr.state_pressed, android.R.attr.state_focused};
+
+    private Drawable mPressed;
+    private Drawable mOther;
+    private StateListMaterialDrawable mDrawable;
+
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        mPressed = new ColorDrawable(Color.RED);
+        mOther = new ColorDrawable(Color.BLUE);
+        mDrawable = new StateListMaterialDrawable(context);
+    }
+
+    @Test
+    public void repeatedStatesSelectTheMatchingChild() {
+        mDrawable.addState(PRESSED, mPressed);
+        mDrawable.addState(new int[]{}, mOther);
+
+        for (int i = 0; i < 2; i++) {
+            mDrawable.setState(PRESSED);
+            assertSame(mPressed, mDrawable.getCurrent());
+            mDrawable.setState(FOCUSED);
+            assertSame(mOther, mDrawable.getCurrent());
+            mDrawable.setState(PRESSED_FOCUSED);
+            assertSame(mPressed, mDrawable.getCurrent());
+        }
+    }
+
+    @Test
+    public void statesWithoutMatchSelectNothing() {
+        mDrawable.addState(PRESSED, mPressed);
+
+        for (int i = 0; i < 2; i++) {
+            mDrawable.setState(FOCUSED);
+            assertNull(mDrawable.getCurrent());
+            mDrawable.setState(PRESSED);
+            assertSame(mPressed, mDrawable.getCurrent());
+        }
+    }
+
+    @Test
+    public void addedStatesApplyToTheCurrentState() {
+        mDrawable.addState(PRESSED, mPressed);
+        mDrawable.setState(FOCUSED);
+
+        mDrawable.addState(new int[]{}, mOther);
+
+        assertSame(mOther, mDrawable.getCurrent());
+    }
+
+    @Test
+    public void repeatedStatesPropagateToTheDrawableFadingOut() {
+        mDrawable.setExitFadeDuration(1000);
+        mDrawable.addState(PRESSED, mPressed);
+        mDrawable.addState(new int[]{}, mOther);
+        mDrawable.setState(PRESSED);
+        mDrawable.setState(FOCUSED);
+        mDrawable.setState(PRESSED_FOCUSED);
+
+        // Fades out the other drawable, then changes the state without changing the selected drawable.
+        mDrawable.setState(FOCUSED);
+        mDrawable.setState(PRESSED);
+        mDrawable.setState(PRESSED_FOCUSED);
+
+        assertSame(mPressed, mDrawable.getCurrent());
+        assertArrayEquals(PRESSED_FOCUSED, mPressed.getState());
+        assertArrayEquals(PRESSED_FOCUSED, mOther.getState());
+    }
+
+    @Test
+    public void drawablesCreatedFromTheStateResolveTheState() {
+        mDrawable.addState(PRESSED, mPressed);
+        mDrawable.addState(new int[]{}, mOther);
+        Drawable.ConstantState state = mDrawable.getConstantState();
+        assertSame(state, mDrawable.getConstantState());
+
+        StateListMaterialDrawable drawable = (StateListMaterialDrawable) state.newDrawable();
+        StateListMaterialDrawable other = (StateListMaterialDrawable) state.newDrawable();
+        assertSame(state, drawable.getConstantState());
+
+        for (int i = 0; i < 2; i++) {
+            drawable.setState(PRESSED);
+            assertEquals(Color.RED, ((ColorDrawable) drawable.getCurrent()).getColor());
+            other.setState(FOCUSED);
+            assertEquals(Color.BLUE, ((ColorDrawable) other.getCurrent()).getColor());
+            drawable.setState(FOCUSED);
+            assertEquals(Color.BLUE, ((ColorDrawable) drawable.getCurrent()).getColor());
+            other.setState(PRESSED_FOCUSED);
+            assertEquals(Color.RED, ((ColorDrawable) other.getCurrent()).getColor());
+        }
+    }
+
+    @Test
+    public void addedStatesDontApplyToTheOtherDrawablesCreatedFromTheState() {
+        mDrawable.addState(PRESSED, mPressed);
+        Drawable.ConstantState state = mDrawable.getConstantState();
+        StateListMaterialDrawable drawable = (StateListMaterialDrawable) state.newDrawable();
+        StateListMaterialDrawable other = (StateListMaterialDrawable) state.newDrawable();
+        other.setState(FOCUSED);
+
+        drawable.addState(new int[]{}, mOther);
+        drawable.setState(FOCUSED);
+        other.setState(PRESSED);
+        other.setState(FOCUSED);
+
+        assertSame(mOther, drawable.getCurrent());
+        assertNull(other.getCurrent());
+        assertNotSame(state, drawable.getConstantState());
+    }
+}
@@ -0,0 +1,61 @@
+package io.doist.material.drawable;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.graphics.drawable.GradientDrawable;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+public class StaticCacheDrawableTest {
+    // 512 x 512 ARGB_8888 renderings take 1MB, so 4 of them fill the 4MB budget.
+    private static final Rect BOUNDS = new Rect(0, 0, 512, 512);
+
+    private final GradientDrawable mDrawable = new GradientDrawable();
+
+    @Before
+    public void setUp() {
+        StaticCacheDrawable.BitmapCache.clearAll();
+    }
+
+    @Test
+    public void renderingsAreReusedPerSize() {
+        StaticCacheDrawable.BitmapCache cache = new StaticCacheDrawable.BitmapCache();
+        Bitmap bitmap = cache.get(mDrawable, BOUNDS);
+
+        assertSame(bitmap, cache.get(mDrawable, new Rect(BOUNDS)));
+        assertNotSame(bitmap, cache.get(mDrawable, new Rect(0, 0, 512, 256)));
+    }
+
+    @Test
+    public void clearOnlyDropsTheRenderingsOfTheCache() {
+        StaticCacheDrawable.BitmapCache cache = new StaticCacheDrawable.BitmapCache();
+        StaticCacheDrawable.BitmapCache other = new StaticCacheDrawable.BitmapCache();
+        Bitmap bitmap = cache.get(mDrawable, BOUNDS);
+        Bitmap otherBitmap = other.get(mDrawable, BOUNDS);
+
+        cache.clear();
+
+        assertNotSame(bitmap, cache.get(mDrawable, BOUNDS));
+        assertSame(otherBitmap, other.get(mDrawable, BOUNDS));
+    }
+
+    @Test
+    public void cachesShareTheByteBudget() {
+        StaticCacheDrawable.BitmapCache[] caches = new StaticCacheDrawable.BitmapCache[5];
+        Bitmap[] bitmaps = new Bitmap[caches.length];
+        for (int i = 0; i < caches.length; i++) {
+            caches[i] = new StaticCacheDrawable.BitmapCache();
+            bitmaps[i] = caches[i].get(mDrawable, BOUNDS);
+        }
+
+        assertNotSame(bitmaps[0], caches[0].get(mDrawable, BOUNDS));
+        assertSame(bitmaps[4], caches[4].get(mDrawable, BOUNDS));
+    }
+}
@@ -0,0 +1,72 @@
+package io.doist.material.drawable;
+
+import android.content.Context;
+import android.content.res.ColorStateList;
+import android.graphics.Color;
+import android.graphics.PorterDuff;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.GradientDrawable;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import static org.junit.Assert.assertSame;
+
+@RunWith(RobolectricTestRunner.class)
+public class TintDrawableTest {
+    private static final int[] PRESSED = new int[]{android.R.attr.state_pressed};
+
+    private static final ColorStateList TINT = new ColorStateList(
+            new int[][]{PRESSED, new int[]{}},
+            new int[]{Color.RED, Color.BLACK});
+
+    private TintDrawable mDrawable;
+
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        mDrawable = new TintDrawable(context, new GradientDrawable(), TINT);
+    }
+
+    @Test
+    public void drawablesCreatedFromTheStateResolveTheTint() {
+        TintDrawable drawable = (TintDrawable) mDrawable.getConstantState().newDrawable();
+        assertTint(Color.BLACK, drawable);
+
+        drawable.setState(PRESSED);
+        assertTint(Color.RED, drawable);
+
+        drawable.setState(new int[]{});
+        assertTint(Color.BLACK, drawable);
+    }
+
+    @Test
+    public void mutatedDrawablesShareTheTintUntilReplaced() {
+        Drawable.ConstantState state = mDrawable.getConstantState();
+        TintDrawable drawable = (TintDrawable) state.newDrawable().mutate();
+        TintDrawable other = (TintDrawable) state.newDrawable().mutate();
+        assertSame(TINT, getTint(drawable));
+        assertSame(TINT, getTint(other));
+
+        ColorStateList tint = ColorStateList.valueOf(Color.BLUE);
+        drawable.setTintList(tint);
+
+        assertSame(tint, getTint(drawable));
+        assertSame(TINT, getTint(other));
+        assertSame(TINT, getTint(mDrawable));
+        assertTint(Color.BLUE, drawable);
+        assertTint(Color.BLACK, other);
+    }
+
+    private static ColorStateList getTint(TintDrawable drawable) {
+        return ((TintDrawable.TintState) drawable.getConstantState()).mTint;
+    }
+
+    private static void assertTint(int color, TintDrawable drawable) {
+        assertSame(TintFilterCache.get(color, PorterDuff.Mode.SRC_IN), drawable.getWrappedDrawable().getColorFilter());
+    }
+}
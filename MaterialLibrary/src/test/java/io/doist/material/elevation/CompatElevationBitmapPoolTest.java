@@ -0,0 +1,87 @@
+package io.doist.material.elevation;
+
+import android.graphics.Bitmap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class CompatElevationBitmapPoolTest {
+    @Before
+    public void setUp() {
+        CompatElevationBitmapPool.clear();
+    }
+
+    @Test
+    public void acquireRoundsUpToTheBucketSize() {
+        Bitmap bitmap = CompatElevationBitmapPool.acquire(5, 9);
+
+        assertEquals(8, bitmap.getWidth());
+        assertEquals(16, bitmap.getHeight());
+        assertEquals(Bitmap.Config.ALPHA_8, bitmap.getConfig());
+    }
+
+    @Test
+    public void releasedBitmapsAreReusedWithinTheirBucket() {
+        Bitmap bitmap = CompatElevationBitmapPool.acquire(10, 10);
+        CompatElevationBitmapPool.release(bitmap);
+
+        assertSame(bitmap, CompatElevationBitmapPool.acquire(16, 12));
+    }
+
+    @Test
+    public void releasedBitmapsAreNotReusedAcrossBuckets() {
+        Bitmap bitmap = CompatElevationBitmapPool.acquire(8, 8);
+        CompatElevationBitmapPool.release(bitmap);
+
+        assertNotSame(bitmap, CompatElevationBitmapPool.acquire(16, 8));
+        assertSame(bitmap, CompatElevationBitmapPool.acquire(8, 8));
+    }
+
+    @Test
+    public void bitmapsNotCreatedByThePoolAreIgnored() {
+        Bitmap bitmap = Bitmap.createBitmap(16, 16, Bitmap.Config.ARGB_8888);
+        CompatElevationBitmapPool.release(bitmap);
+
+        assertNotSame(bitmap, CompatElevationBitmapPool.acquire(16, 16));
+    }
+
+    @Test
+    public void bitmapsReleasedTwiceArePooledOnce() {
+        Bitmap bitmap = CompatElevationBitmapPool.acquire(24, 24);
+        CompatElevationBitmapPool.release(bitmap);
+        CompatElevationBitmapPool.release(bitmap);
+
+        assertSame(bitmap, CompatElevationBitmapPool.acquire(24, 24));
+        assertNotSame(bitmap, CompatElevationBitmapPool.acquire(24, 24));
+    }
+
+    @Test
+    public void pooledBytesAreCapped() {
+        // 256 x 256 ALPHA_8 bitmaps take 64KB, so 8 of them fill the 512KB pool.
+        List<Bitmap> bitmaps = new ArrayList<>();
+        for (int i = 0; i < 9; i++) {
+            bitmaps.add(CompatElevationBitmapPool.acquire(256, 256));
+        }
+        for (Bitmap bitmap : bitmaps) {
+            CompatElevationBitmapPool.release(bitmap);
+        }
+
+        for (int i = 0; i < 8; i++) {
+            assertTrue(bitmaps.subList(0, 8).contains(CompatElevationBitmapPool.acquire(256, 256)));
+        }
+        Bitmap bitmap = CompatElevationBitmapPool.acquire(256, 256);
+        assertFalse(bitmaps.contains(bitmap));
+    }
+}
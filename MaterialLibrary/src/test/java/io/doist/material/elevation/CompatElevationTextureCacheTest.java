@@ -0,0 +1,118 @@
+package io.doist.material.elevation;
+
+import android.graphics.Bitmap;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+public class CompatElevationTextureCacheTest {
+    @Before
+    public void setUp() {
+        CompatElevationTextureCache.clear();
+    }
+
+    @Test
+    public void keysWithTheSameParametersAreEqual() {
+        CompatElevationTextureCache.Key key = createKey(4);
+        CompatElevationTextureCache.Key other = createKey(4);
+
+        assertEquals(key, other);
+        assertEquals(key.hashCode(), other.hashCode());
+        assertNotEquals(key, createKey(5));
+    }
+
+    @Test
+    public void keysDifferingInAnyParameterAreNotEqual() {
+        CompatElevationTextureCache.Key key = createKey(4);
+        CompatElevationTextureCache.Key other = createKey(4);
+        other.showShadowTop = false;
+        assertNotEquals(key, other);
+
+        other = createKey(4);
+        other.shadowAlphaBottom = 0.5f;
+        assertNotEquals(key, other);
+
+        other = createKey(4);
+        other.shadowLengthRight++;
+        assertNotEquals(key, other);
+    }
+
+    @Test
+    public void copiedKeysAreIndependent() {
+        CompatElevationTextureCache.Key key = createKey(4);
+        CompatElevationTextureCache.Key copy = key.copy();
+        assertEquals(key, copy);
+
+        key.cornerRadius = 8;
+        assertNotEquals(key, copy);
+        assertEquals(4, copy.cornerRadius);
+    }
+
+    @Test
+    public void texturesAreFoundByEqualKeys() {
+        Bitmap texture = createTexture(32);
+        CompatElevationTextureCache.put(createKey(4), texture);
+
+        assertSame(texture, CompatElevationTextureCache.get(createKey(4)));
+        assertNull(CompatElevationTextureCache.get(createKey(5)));
+    }
+
+    @Test
+    public void leastRecentlyUsedTexturesAreEvicted() {
+        // 512 x 512 ALPHA_8 textures take 256KB, so 4 of them fill the 1MB cache.
+        for (int i = 0; i < 4; i++) {
+            CompatElevationTextureCache.put(createKey(i), createTexture(512));
+        }
+        CompatElevationTextureCache.get(createKey(0));
+
+        CompatElevationTextureCache.put(createKey(4), createTexture(512));
+
+        assertNotNull(CompatElevationTextureCache.get(createKey(0)));
+        assertNull(CompatElevationTextureCache.get(createKey(1)));
+        assertNotNull(CompatElevationTextureCache.get(createKey(2)));
+        assertNotNull(CompatElevationTextureCache.get(createKey(3)));
+        assertNotNull(CompatElevationTextureCache.get(createKey(4)));
+    }
+
+    @Test
+    public void texturesLargerThanTheCacheAreNotCached() {
+        Bitmap texture = createTexture(32);
+        CompatElevationTextureCache.put(createKey(0), texture);
+
+        CompatElevationTextureCache.put(createKey(1), createTexture(1100));
+
+        assertNull(CompatElevationTextureCache.get(createKey(1)));
+        assertSame(texture, CompatElevationTextureCache.get(createKey(0)));
+    }
+
+    @Test
+    public void fitsMatchesTheTextureSize() {
+        CompatElevationTextureCache.Key key = createKey(4);
+        assertTrue(CompatElevationTextureCache.fits(key));
+
+        // 3 columns and rows of 400px take 1.44MB.
+        key.set(0, 400, 400, 400, 400, 0.1f, 0.1f, 0.1f, 0.1f, true, true, true, true);
+        assertFalse(CompatElevationTextureCache.fits(key));
+    }
+
+    private static CompatElevationTextureCache.Key createKey(int cornerRadius) {
+        CompatElevationTextureCache.Key key = new CompatElevationTextureCache.Key();
+        key.set(cornerRadius, 3, 2, 4, 6, 0.1f, 0.1f, 0.2f, 0.3f, true, true, true, true);
+        return key;
+    }
+
+    private static Bitmap createTexture(int size) {
+        return Bitmap.createBitmap(size, size, Bitmap.Config.ALPHA_8);
+    }
+}
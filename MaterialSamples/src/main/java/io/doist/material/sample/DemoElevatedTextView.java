@@ -43,4 +43,11 @@ public class DemoElevatedTextView extends TextView {
 
         mCompatElevationDelegate.onDetachedFromWindow();
     }
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+
+        mCompatElevationDelegate.onWindowVisibilityChanged(visibility);
+    }
 }